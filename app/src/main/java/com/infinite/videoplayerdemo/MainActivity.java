@@ -2,6 +2,7 @@ package com.infinite.videoplayerdemo;
 
 import android.content.res.Configuration;
 import android.media.MediaPlayer;
+import android.net.Uri;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
@@ -9,14 +10,19 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import com.infinite.simpleplayer.FrameCache;
+import com.infinite.simpleplayer.PositionStore;
+import com.infinite.simpleplayer.SeekCompleteListener;
 import com.infinite.simpleplayer.SimplePlayerController;
+import com.infinite.simpleplayer.SuspendPolicy;
 import com.infinite.simpleplayer.UniversalVideoView;
 import com.infinite.simpleplayer.VideoPlayerCallback;
 
-public class MainActivity extends AppCompatActivity implements VideoPlayerCallback {
+public class MainActivity extends AppCompatActivity implements VideoPlayerCallback, SeekCompleteListener {
 
     private static final String TAG = "MainActivity";
     private static final String SEEK_POSITION_KEY = "SEEK_POSITION_KEY";
+    private static final long SURFACE_RETENTION_MILLIS = 10000;  //Surface销毁后保留播放器10秒
     private static final String VIDEO_URL = "http://kuaikuai.oss-cn-beijing.aliyuncs.com/upload/d2a226b1-3344-499c-8acc-d08831334a77.mp4";
 
     UniversalVideoView mVideoView;
@@ -40,8 +46,13 @@ public class MainActivity extends AppCompatActivity implements VideoPlayerCallba
         mVideoView = (UniversalVideoView) findViewById(R.id.videoView);
         mMediaController = (SimplePlayerController) findViewById(R.id.media_controller);
         mVideoView.setMediaController(mMediaController);
+        mVideoView.setPositionStore(PositionStore.getInstance(this));
+        mVideoView.setSurfaceRetention(SURFACE_RETENTION_MILLIS, false);
+        mVideoView.setSuspendPolicy(new SuspendPolicy());
+        mVideoView.setFrameCache(FrameCache.getInstance(this));
         setVideoAreaSize();
         mVideoView.setVideoPlayerCallback(this);
+        mVideoView.setSeekCompleteListener(this);
         mStart = (TextView) findViewById(R.id.start);
 
         mStart.setOnClickListener(new View.OnClickListener() {
@@ -57,8 +68,10 @@ public class MainActivity extends AppCompatActivity implements VideoPlayerCallba
     protected void onPause() {
         super.onPause();
         if (mVideoView != null && mVideoView.isPlaying()) {
+            mSeekPosition = mVideoView.getCurrentPosition();
             mVideoView.pause(false);
         }
+        PositionStore.getInstance(this).flush();
     }
 
 
@@ -84,6 +97,9 @@ public class MainActivity extends AppCompatActivity implements VideoPlayerCallba
                 videoLayoutParams.height = cachedHeight;
                 mVideoLayout.setLayoutParams(videoLayoutParams);
                 mVideoView.setVideoPath(VIDEO_URL);
+                if (mSeekPosition > 0) {
+                    mVideoView.seekTo(mSeekPosition);  //Activity重建,回到原来的位置
+                }
                 mVideoView.requestFocus();
             }
         });
@@ -93,7 +109,10 @@ public class MainActivity extends AppCompatActivity implements VideoPlayerCallba
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
-        Log.d(TAG, "onSaveInstanceState Position=" + mVideoView.getCurrentPosition());
+        if (mVideoView.isPlaying()) {
+            mSeekPosition = mVideoView.getCurrentPosition();
+        }
+        Log.d(TAG, "onSaveInstanceState Position=" + mSeekPosition);
         outState.putInt(SEEK_POSITION_KEY, mSeekPosition);
     }
 
@@ -188,6 +207,11 @@ public class MainActivity extends AppCompatActivity implements VideoPlayerCallba
         Log.d(TAG, "onBufferingEnd UniversalVideoView callback");
     }
 
+    @Override
+    public void onSeekComplete(MediaPlayer mp) {
+        Log.d(TAG, "onSeekComplete position=" + mp.getCurrentPosition());
+    }
+
     @Override
     public void onBackPressed() {
         if (this.isFullscreen) {
@@ -0,0 +1,26 @@
+package com.infinite.simpleplayer;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.view.WindowManager;
+import android.widget.FrameLayout;
+
+/**
+ * 基准测试用的空Activity,测试把播放器或列表加到{@link #getContainer()}里
+ */
+public class BenchmarkActivity extends Activity {
+
+    private FrameLayout mContainer;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+        mContainer = new FrameLayout(this);
+        setContentView(mContainer);
+    }
+
+    public FrameLayout getContainer() {
+        return mContainer;
+    }
+}
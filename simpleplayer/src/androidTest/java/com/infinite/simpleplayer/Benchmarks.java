@@ -0,0 +1,54 @@
+package com.infinite.simpleplayer;
+
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.util.Log;
+
+/**
+ * 基准测试的公共方法.视频地址可以用instrumentation参数videoUrl指定:
+ * <pre>
+ * ./gradlew :simpleplayer:connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.videoUrl=http://...
+ * </pre>
+ * 结果打印在logcat的Benchmarks标签下
+ */
+final class Benchmarks {
+
+    private static final String TAG = "Benchmarks";
+    private static final String DEFAULT_VIDEO_URL =
+            "http://kuaikuai.oss-cn-beijing.aliyuncs.com/upload/d2a226b1-3344-499c-8acc-d08831334a77.mp4";
+
+    private Benchmarks() {
+    }
+
+    static Uri videoUri() {
+        String url = InstrumentationRegistry.getArguments().getString("videoUrl");
+        return Uri.parse(url != null ? url : DEFAULT_VIDEO_URL);
+    }
+
+    /**
+     * @return 加了查询参数的地址,内容相同,但对播放器和缓存来说是不同的视频
+     */
+    static Uri videoUri(int variant) {
+        return videoUri().buildUpon().appendQueryParameter("variant", String.valueOf(variant)).build();
+    }
+
+    static void runOnMain(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static void report(String name, String result) {
+        Log.i(TAG, name + ": " + result);
+        Bundle status = new Bundle();
+        status.putString(name, result);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);  //am instrument -r的输出里也能看到
+    }
+}
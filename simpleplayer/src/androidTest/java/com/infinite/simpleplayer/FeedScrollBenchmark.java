@@ -0,0 +1,253 @@
+package com.infinite.simpleplayer;
+
+import android.annotation.TargetApi;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Debug;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.Choreographer;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.FrameLayout;
+import android.widget.ListView;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+/**
+ * 100个条目的视频列表从头滚到尾,第一个完整可见的条目自动播放,比较两种做法的滚动卡顿和内存:
+ * 整个列表共用{@link FeedPlayerManager}的播放器,和每一行放一个{@link UniversalVideoView}.需要真机和网络
+ */
+@RunWith(AndroidJUnit4.class)
+public class FeedScrollBenchmark {
+
+    private static final int ITEMS = 100;
+    private static final int VISIBLE_ROWS = 3;
+    private static final int ROWS_PER_STEP = 5;
+    private static final int STEP_MILLIS = 1500;
+    private static final long SETTLE_MILLIS = 500;  //每次滚动停下后等一会,让当前条目开始播放
+
+    @Rule
+    public ActivityTestRule<BenchmarkActivity> mActivityRule = new ActivityTestRule<>(BenchmarkActivity.class);
+
+    @Test
+    public void sharedPlayer() throws Exception {
+        Benchmarks.report("feed.shared", scroll(true));
+    }
+
+    @Test
+    public void playerPerRow() throws Exception {
+        Benchmarks.report("feed.perRow", scroll(false));
+    }
+
+    private String scroll(final boolean shared) throws Exception {
+        final ListView[] listView = new ListView[1];
+        final FeedAdapter[] adapter = new FeedAdapter[1];
+        final FrameMonitor monitor = new FrameMonitor();
+        final long[] memory = new long[2];  //开始时的PSS,滚动过程中PSS的最大值,KB
+        Benchmarks.runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                BenchmarkActivity activity = mActivityRule.getActivity();
+                memory[0] = Debug.getPss();
+                listView[0] = new ListView(activity);
+                adapter[0] = new FeedAdapter(activity, shared, activity.getContainer().getHeight() / VISIBLE_ROWS);
+                listView[0].setAdapter(adapter[0]);
+                listView[0].setOnScrollListener(adapter[0]);
+                activity.getContainer().addView(listView[0]);
+            }
+        });
+        Benchmarks.sleep(SETTLE_MILLIS);
+        Benchmarks.runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                monitor.start();
+            }
+        });
+        for (int scrolled = 0; scrolled < ITEMS; scrolled += ROWS_PER_STEP) {
+            Benchmarks.runOnMain(new Runnable() {
+                @Override
+                public void run() {
+                    listView[0].smoothScrollBy(adapter[0].mRowHeight * ROWS_PER_STEP, STEP_MILLIS);
+                }
+            });
+            Benchmarks.sleep(STEP_MILLIS + SETTLE_MILLIS);
+            memory[1] = Math.max(memory[1], Debug.getPss());
+        }
+
+        final String[] result = new String[1];
+        Benchmarks.runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                monitor.stop();
+                result[0] = String.format(Locale.US,
+                        "%d items, %s, pss %d KB -> peak %d KB, %d players created",
+                        ITEMS, monitor, memory[0], memory[1], adapter[0].mPlayersCreated);
+                adapter[0].release();
+                mActivityRule.getActivity().getContainer().removeView(listView[0]);
+            }
+        });
+        return result[0];
+    }
+
+    /**
+     * 第一个完整可见的条目是当前条目.共用模式下行只是空容器,每行一个播放器的模式下行里放自己的播放器
+     */
+    private static final class FeedAdapter extends BaseAdapter implements AbsListView.OnScrollListener {
+
+        private final BenchmarkActivity mActivity;
+        private final boolean mShared;
+        private final int mRowHeight;
+        private final FeedPlayerManager mManager;
+        private FrameLayout mActiveRow;
+        private int mPlayersCreated;
+
+        FeedAdapter(BenchmarkActivity activity, boolean shared, int rowHeight) {
+            mActivity = activity;
+            mShared = shared;
+            mRowHeight = rowHeight;
+            mManager = shared ? new FeedPlayerManager(activity, 2) : null;
+            mPlayersCreated = shared ? 1 : 0;
+        }
+
+        @Override
+        public int getCount() {
+            return ITEMS;
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return Benchmarks.videoUri(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            FrameLayout row = (FrameLayout) convertView;
+            if (row == null) {
+                row = new FrameLayout(mActivity);
+                row.setLayoutParams(new AbsListView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, mRowHeight));
+                if (!mShared) {
+                    row.addView(new UniversalVideoView(mActivity));
+                    mPlayersCreated++;
+                }
+            } else {
+                deactivate(row);  //行被复用,原来的条目已经划走
+            }
+            row.setTag(position);
+            return row;
+        }
+
+        @Override
+        public void onScrollStateChanged(AbsListView view, int scrollState) {
+        }
+
+        @Override
+        public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+            for (int i = 0; i < view.getChildCount(); i++) {
+                View child = view.getChildAt(i);
+                if (child.getTop() >= 0) {
+                    activate((FrameLayout) child);
+                    return;
+                }
+            }
+        }
+
+        private void activate(FrameLayout row) {
+            if (row == mActiveRow) {
+                return;
+            }
+            if (mActiveRow != null) {
+                deactivate(mActiveRow);
+            }
+            mActiveRow = row;
+            Uri uri = Benchmarks.videoUri((Integer) row.getTag());
+            if (mShared) {
+                mManager.play(row, uri);
+            } else {
+                UniversalVideoView videoView = (UniversalVideoView) row.getChildAt(0);
+                videoView.setVideoURI(uri);
+                videoView.start();
+            }
+        }
+
+        private void deactivate(FrameLayout row) {
+            if (mShared) {
+                mManager.stop(row);
+            } else {
+                ((UniversalVideoView) row.getChildAt(0)).stopPlayback();
+            }
+            if (row == mActiveRow) {
+                mActiveRow = null;
+            }
+        }
+
+        void release() {
+            if (mShared) {
+                mManager.release();
+            } else if (mActiveRow != null) {
+                deactivate(mActiveRow);
+            }
+        }
+    }
+
+    /**
+     * 用Choreographer统计滚动期间的帧数和超过1.5个刷新间隔的卡顿帧
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static final class FrameMonitor implements Choreographer.FrameCallback {
+
+        private static final long FRAME_INTERVAL_NANOS = 1000000000L / 60;
+
+        private long mLastFrameNanos;
+        private long mFrames;
+        private long mJankyFrames;
+        private long mDroppedFrames;
+        private long mMaxFrameNanos;
+        private boolean mRunning;
+
+        void start() {
+            mRunning = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            mRunning = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (mLastFrameNanos != 0) {
+                long interval = frameTimeNanos - mLastFrameNanos;
+                if (interval * 2 > FRAME_INTERVAL_NANOS * 3) {
+                    mJankyFrames++;
+                    mDroppedFrames += (interval + FRAME_INTERVAL_NANOS / 2) / FRAME_INTERVAL_NANOS - 1;
+                }
+                mMaxFrameNanos = Math.max(mMaxFrameNanos, interval);
+            }
+            mFrames++;
+            mLastFrameNanos = frameTimeNanos;
+            if (mRunning) {
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d frames, %d janky (%.1f%%), %d dropped, longest %d ms",
+                    mFrames, mJankyFrames, mFrames > 0 ? 100f * mJankyFrames / mFrames : 0f,
+                    mDroppedFrames, mMaxFrameNanos / 1000000);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.infinite.simpleplayer;
+
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.widget.FrameLayout;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 比较SurfaceView和TextureView两种显示方式:播放中反复把播放器从界面上拿下来再放回去(全屏切换、列表复用),
+ * 统计重新打开视频的次数、直接接上的次数和界面掉帧,结果见{@link RenderStats}.需要真机和网络
+ */
+@RunWith(AndroidJUnit4.class)
+public class RenderModeBenchmark {
+
+    private static final int CYCLES = 10;
+    private static final long DETACHED_MILLIS = 300;
+    private static final long PLAY_MILLIS = 1000;  //每次放回去后播放的时间
+    private static final long FIRST_FRAME_TIMEOUT_SECONDS = 30;
+
+    @Rule
+    public ActivityTestRule<BenchmarkActivity> mActivityRule = new ActivityTestRule<>(BenchmarkActivity.class);
+
+    /**
+     * 同一个进程里先后跑两种显示方式,结果放在一起报告.TextureView保留了SurfaceTexture,不应该重新打开视频
+     */
+    @Test
+    public void surfaceVersusTexture() throws Exception {
+        RenderStats[] surface = new RenderStats[1];
+        RenderStats[] texture = new RenderStats[1];
+        String surfaceResult = run(UniversalVideoView.RENDER_MODE_SURFACE, surface);
+        String textureResult = run(UniversalVideoView.RENDER_MODE_TEXTURE, texture);
+        Benchmarks.report("render.surface", surfaceResult);
+        Benchmarks.report("render.texture", textureResult);
+        Benchmarks.report("render.compare", String.format(Locale.US,
+                "reopens %d vs %d, reattaches %d vs %d, dropped UI frames %d vs %d (surface vs texture)",
+                surface[0].getReopenCount(), texture[0].getReopenCount(),
+                surface[0].getReattachCount(), texture[0].getReattachCount(),
+                surface[0].getDroppedUiFrames(), texture[0].getDroppedUiFrames()));
+        assertEquals("texture reopens", 0, texture[0].getReopenCount());
+    }
+
+    /**
+     * @param stats 返回这次的渲染统计
+     */
+    private String run(final int renderMode, final RenderStats[] stats) throws Exception {
+        final UniversalVideoView[] videoView = new UniversalVideoView[1];
+        final CountDownLatch firstFrame = new CountDownLatch(1);
+        Benchmarks.runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                videoView[0] = new UniversalVideoView(mActivityRule.getActivity());
+                videoView[0].setRenderMode(renderMode);
+                videoView[0].getRenderStats().setFrameMonitorEnabled(true);
+                videoView[0].setPlaybackMetricsListener(new PlaybackMetrics.Listener() {
+                    @Override
+                    public void onFirstFrameRendered(PlaybackMetrics metrics) {
+                        firstFrame.countDown();
+                    }
+                });
+                mActivityRule.getActivity().getContainer().addView(videoView[0]);
+                videoView[0].setVideoURI(Benchmarks.videoUri());
+                videoView[0].start();
+            }
+        });
+        assertTrue("first frame", firstFrame.await(FIRST_FRAME_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        for (int i = 0; i < CYCLES; i++) {
+            Benchmarks.runOnMain(new Runnable() {
+                @Override
+                public void run() {
+                    mActivityRule.getActivity().getContainer().removeView(videoView[0]);
+                }
+            });
+            Benchmarks.sleep(DETACHED_MILLIS);
+            Benchmarks.runOnMain(new Runnable() {
+                @Override
+                public void run() {
+                    FrameLayout container = mActivityRule.getActivity().getContainer();
+                    container.addView(videoView[0]);
+                    videoView[0].start();
+                }
+            });
+            Benchmarks.sleep(PLAY_MILLIS);
+        }
+
+        final String[] result = new String[1];
+        Benchmarks.runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                stats[0] = videoView[0].getRenderStats();
+                result[0] = CYCLES + " detach/attach cycles, " + stats[0]
+                        + ", " + videoView[0].getQoeTracker();
+                videoView[0].stopPlayback();
+                mActivityRule.getActivity().getContainer().removeView(videoView[0]);
+            }
+        });
+        return result[0];
+    }
+}
@@ -0,0 +1,94 @@
+package com.infinite.simpleplayer;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 连续切换50个视频:主线程在setVideoURI和start里阻塞的时间,以及最后一个视频的首帧耗时,
+ * 分别在普通模式和{@link UniversalVideoView#setZapMode(boolean)}下测量.需要真机和网络
+ */
+@RunWith(AndroidJUnit4.class)
+public class ZapBenchmark {
+
+    private static final int SWITCHES = 50;
+    private static final long FIRST_FRAME_TIMEOUT_SECONDS = 30;
+
+    @Rule
+    public ActivityTestRule<BenchmarkActivity> mActivityRule = new ActivityTestRule<>(BenchmarkActivity.class);
+
+    @Test
+    public void switchesInNormalMode() throws Exception {
+        Benchmarks.report("zap.normal", zap(false));
+    }
+
+    @Test
+    public void switchesInZapMode() throws Exception {
+        Benchmarks.report("zap.zapMode", zap(true));
+    }
+
+    private String zap(final boolean zapMode) throws Exception {
+        final UniversalVideoView[] videoView = new UniversalVideoView[1];
+        final Uri lastUri = Benchmarks.videoUri(SWITCHES - 1);
+        final CountDownLatch firstFrame = new CountDownLatch(1);
+        Benchmarks.runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                BenchmarkActivity activity = mActivityRule.getActivity();
+                videoView[0] = new UniversalVideoView(activity);
+                videoView[0].setZapMode(zapMode);
+                videoView[0].setPlaybackMetricsListener(new PlaybackMetrics.Listener() {
+                    @Override
+                    public void onFirstFrameRendered(PlaybackMetrics metrics) {
+                        if (lastUri.equals(metrics.getUri())) {
+                            firstFrame.countDown();
+                        }
+                    }
+                });
+                activity.getContainer().addView(videoView[0]);
+            }
+        });
+
+        long blockedMillis = 0;
+        long maxBlockedMillis = 0;
+        for (int i = 0; i < SWITCHES; i++) {
+            final Uri uri = Benchmarks.videoUri(i);
+            final long[] elapsed = new long[1];
+            Benchmarks.runOnMain(new Runnable() {
+                @Override
+                public void run() {
+                    long startTime = SystemClock.uptimeMillis();
+                    videoView[0].setVideoURI(uri);
+                    videoView[0].start();
+                    elapsed[0] = SystemClock.uptimeMillis() - startTime;
+                }
+            });
+            blockedMillis += elapsed[0];
+            maxBlockedMillis = Math.max(maxBlockedMillis, elapsed[0]);
+        }
+        assertTrue("first frame of the last video", firstFrame.await(FIRST_FRAME_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        final PlaybackMetrics[] metrics = new PlaybackMetrics[1];
+        Benchmarks.runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                metrics[0] = videoView[0].getPlaybackMetrics();
+                videoView[0].stopPlayback();
+                mActivityRule.getActivity().getContainer().removeView(videoView[0]);
+            }
+        });
+        return String.format(Locale.US, "%d switches, main thread blocked %d ms (max %d ms), last %s",
+                SWITCHES, blockedMillis, maxBlockedMillis, metrics[0]);
+    }
+}
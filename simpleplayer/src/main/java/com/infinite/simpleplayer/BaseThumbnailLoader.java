@@ -0,0 +1,232 @@
+package com.infinite.simpleplayer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 拖动预览缩略图的公共部分:按内存大小限制的LRU缓存、沿拖动方向预取、只保留最新的请求、
+ * 换视频后丢掉旧结果,以及被淘汰的Bitmap的复用池.
+ * <p>
+ * 子类决定缩略图的键和取图方式:{@link #keyOf}在主线程把位置换成键,{@link #load}在后台线程取图.
+ * 取图在后台线程,其他方法都只在主线程调用,结果也在主线程回调.
+ *
+ * @param <K> 缩略图的键,比如对齐后的位置或者雪碧图里的序号
+ */
+abstract class BaseThumbnailLoader<K> implements ThumbnailProvider {
+
+    private static final int MAX_REUSABLE = 4;
+
+    protected final Context mContext;
+    protected final Handler mHandler;  //后台线程
+    protected final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final int mLookahead;
+    private final LruCache<K, Bitmap> mCache;
+    private final ArrayDeque<K> mPending = new ArrayDeque<>();  //等待取图的键,每次请求整个替换
+    private final ArrayDeque<Bitmap> mReusable = new ArrayDeque<>();  //被淘汰的缩略图,后台线程取图时复用
+    private final AtomicInteger mGeneration = new AtomicInteger();  //换视频时加1,旧视频的结果直接丢掉
+    private Callback mCallback;
+    private K mRequestedKey;
+    private Bitmap mDisplayed;  //正在显示的缩略图,淘汰时不能复用
+
+    /**
+     * @param lookahead 沿拖动方向预取的数量
+     */
+    BaseThumbnailLoader(Context context, String threadName, int lookahead, int maxCacheBytes) {
+        this.mContext = context.getApplicationContext();
+        this.mLookahead = lookahead;
+        int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 32, maxCacheBytes);
+        this.mCache = new LruCache<K, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(K key, Bitmap value) {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, K key, Bitmap oldValue, Bitmap newValue) {
+                if (oldValue != mDisplayed) {
+                    addReusable(oldValue);
+                }
+            }
+        };
+        HandlerThread thread = new HandlerThread(threadName, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * @return position对应的键,还不能取图时返回null
+     */
+    protected abstract K keyOf(long positionMillis);
+
+    /**
+     * @param step 正数向后,负数向前
+     * @return key相邻的键,超出范围时返回null
+     */
+    protected abstract K neighbor(K key, int step);
+
+    /**
+     * 在后台线程取图,可以用{@link #takeReusable(int, int)}复用旧的Bitmap
+     *
+     * @return 取不到时返回null
+     */
+    protected abstract Bitmap load(K key);
+
+    /**
+     * @return 回调给{@link Callback}的位置
+     */
+    protected abstract long positionOf(K key);
+
+    /**
+     * 在后台线程释放资源,{@link #release()}时调用
+     */
+    protected void onReleased() {
+    }
+
+    @Override
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    protected Callback getCallback() {
+        return mCallback;
+    }
+
+    /**
+     * 换视频:之前的请求和缓存都作废
+     *
+     * @return 新的代数,后台任务完成时用{@link #isCurrentGeneration(int)}判断结果是否还有用
+     */
+    protected int resetForNewSource() {
+        int generation = mGeneration.incrementAndGet();
+        cancel();
+        mRequestedKey = null;
+        mCache.evictAll();
+        return generation;
+    }
+
+    protected boolean isCurrentGeneration(int generation) {
+        return generation == mGeneration.get();
+    }
+
+    @Override
+    public Bitmap request(long positionMillis, boolean forward) {
+        K key = keyOf(positionMillis);
+        if (key == null) {
+            return null;
+        }
+        mRequestedKey = key;
+        Bitmap cached = mCache.get(key);
+        synchronized (mPending) {
+            mPending.clear();
+            if (cached == null) {
+                mPending.add(key);
+            }
+            for (int i = 1; i <= mLookahead; i++) {
+                K next = neighbor(key, forward ? i : -i);
+                if (next == null) {
+                    break;
+                }
+                if (mCache.get(next) == null) {
+                    mPending.add(next);
+                }
+            }
+        }
+        mHandler.removeCallbacks(mLoadRunnable);
+        mHandler.post(mLoadRunnable);
+        if (cached != null) {
+            mDisplayed = cached;
+        }
+        return cached;
+    }
+
+    @Override
+    public void cancel() {
+        synchronized (mPending) {
+            mPending.clear();
+        }
+    }
+
+    @Override
+    public void release() {
+        setDataSource(null);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                onReleased();
+                Looper.myLooper().quit();
+            }
+        });
+    }
+
+    private final Runnable mLoadRunnable = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                final int generation = mGeneration.get();
+                final K key;
+                synchronized (mPending) {
+                    key = mPending.poll();
+                }
+                if (key == null) {
+                    return;
+                }
+                final Bitmap bitmap = load(key);
+                if (bitmap == null) {
+                    continue;
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onLoaded(generation, key, bitmap);
+                    }
+                });
+            }
+        }
+    };
+
+    private void onLoaded(int generation, K key, Bitmap bitmap) {
+        if (!isCurrentGeneration(generation)) {
+            addReusable(bitmap);
+            return;
+        }
+        mCache.put(key, bitmap);
+        if (key.equals(mRequestedKey) && mCallback != null) {
+            mDisplayed = bitmap;
+            mCallback.onThumbnailLoaded(positionOf(key), bitmap);
+        }
+    }
+
+    private void addReusable(Bitmap bitmap) {
+        synchronized (mReusable) {
+            if (mReusable.size() < MAX_REUSABLE) {
+                mReusable.add(bitmap);
+            }
+        }
+    }
+
+    /**
+     * @return 大小相同的旧Bitmap,没有时返回null
+     */
+    protected Bitmap takeReusable(int width, int height) {
+        synchronized (mReusable) {
+            Iterator<Bitmap> iterator = mReusable.iterator();
+            while (iterator.hasNext()) {
+                Bitmap bitmap = iterator.next();
+                if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                    iterator.remove();
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
+}
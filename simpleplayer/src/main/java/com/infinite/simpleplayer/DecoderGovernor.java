@@ -0,0 +1,294 @@
+package com.infinite.simpleplayer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 整个进程的MediaPlayer数量上限:每个准备中、准备好或者播放中的MediaPlayer都占一个解码器,
+ * 超过硬件解码器数量时prepare会失败(MEDIA_ERROR_UNKNOWN)或者悄悄换成软解.
+ * <p>
+ * {@link UniversalVideoView}打开视频、{@link MediaPlayerPool}预先准备和播放列表准备下一个视频都要先申请.
+ * 满了的时候释放最久没用过的空闲播放器(暂停的、池里的),没有空闲的就排队,等有播放器释放或者变成空闲.
+ * 排队时间记录在{@link PlaybackMetrics#getDecoderQueueMillis()}.只能在主线程调用
+ */
+public class DecoderGovernor {
+
+    private static final String TAG = "DecoderGovernor";
+    public static final int DEFAULT_MAX_PLAYERS = 4;  //大部分机器能同时开的硬解码器数量,低端机可以调小
+
+    private static DecoderGovernor sInstance;
+
+    /**
+     * 申请解码器的一方,都在主线程回调
+     */
+    interface Owner {
+
+        /**
+         * 排队的申请轮到了,不再需要时要调用{@link Lease#release()}
+         */
+        void onGranted(Lease lease);
+
+        /**
+         * 空闲的播放器被收回,要在这里释放播放器并调用{@link Lease#release()}
+         */
+        void onEvict(Lease lease);
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<Lease> mLeases = new ArrayList<>();  //已经拿到解码器的,最久没用过的在前面
+    private final ArrayDeque<Lease> mQueue = new ArrayDeque<>();
+    private int mMaxPlayers = DEFAULT_MAX_PLAYERS;
+
+    private int mQueuedCount;
+    private int mEvictedCount;
+    private long mTotalQueueMillis;
+    private long mMaxQueueMillis;
+
+    public static synchronized DecoderGovernor getInstance() {
+        if (sInstance == null) {
+            sInstance = new DecoderGovernor();
+        }
+        return sInstance;
+    }
+
+    DecoderGovernor() {
+    }
+
+    /**
+     * 调小时马上收回多出来的空闲播放器,正在播放的等它们空闲或者释放
+     */
+    public void setMaxPlayers(int maxPlayers) {
+        mMaxPlayers = Math.max(1, maxPlayers);
+        while (mLeases.size() > mMaxPlayers && evictIdle()) {
+            //继续收回
+        }
+        scheduleProcessQueue();
+    }
+
+    public int getMaxPlayers() {
+        return mMaxPlayers;
+    }
+
+    /**
+     * @return 现在占用解码器的播放器数量
+     */
+    public int getActiveCount() {
+        return mLeases.size();
+    }
+
+    /**
+     * @return 正在排队的申请数量
+     */
+    public int getWaitingCount() {
+        return mQueue.size();
+    }
+
+    /**
+     * @return 到现在为止排过队的申请数量
+     */
+    public int getQueuedCount() {
+        return mQueuedCount;
+    }
+
+    /**
+     * @return 到现在为止被收回的空闲播放器数量
+     */
+    public int getEvictedCount() {
+        return mEvictedCount;
+    }
+
+    /**
+     * @return 排过队的申请的平均等待时间,没有排过队时返回0
+     */
+    public long getAverageQueueMillis() {
+        return mQueuedCount > 0 ? mTotalQueueMillis / mQueuedCount : 0;
+    }
+
+    public long getMaxQueueMillis() {
+        return mMaxQueueMillis;
+    }
+
+    /**
+     * 申请一个解码器,满了时先收回最久没用过的空闲播放器,还不够就排队,轮到时回调{@link Owner#onGranted}
+     *
+     * @return 用{@link Lease#isGranted()}判断是否已经拿到
+     */
+    Lease acquire(Owner owner) {
+        Lease lease = new Lease(this, owner);
+        if (mQueue.isEmpty() && makeRoom()) {
+            grant(lease);
+            return lease;
+        }
+        mQueue.add(lease);
+        mQueuedCount++;
+        Log.d(TAG, "No free decoder, queued " + mQueue.size() + ", active " + mLeases.size());
+        return lease;
+    }
+
+    /**
+     * 只在有空位时申请,不收回别的播放器也不排队,用于预先准备这种可有可无的情况
+     *
+     * @return 没有空位时返回null
+     */
+    Lease tryAcquire(Owner owner) {
+        if (!mQueue.isEmpty() || mLeases.size() >= mMaxPlayers) {
+            return null;
+        }
+        Lease lease = new Lease(this, owner);
+        grant(lease);
+        return lease;
+    }
+
+    private boolean makeRoom() {
+        while (mLeases.size() >= mMaxPlayers) {
+            if (!evictIdle()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 收回最久没用过的空闲播放器
+     *
+     * @return 没有空闲的播放器时返回false
+     */
+    private boolean evictIdle() {
+        for (Lease lease : mLeases) {
+            if (lease.mIdle) {
+                lease.mOwner.onEvict(lease);
+                if (lease.mGranted) {
+                    Log.w(TAG, "Evicted lease not released by " + lease.mOwner);
+                    lease.mIdle = false;  //不再选它,避免死循环
+                } else {
+                    mEvictedCount++;  //只统计真正收回的
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void grant(Lease lease) {
+        lease.mGranted = true;
+        lease.mQueueMillis = SystemClock.elapsedRealtime() - lease.mRequestTime;
+        mLeases.add(lease);
+    }
+
+    private void scheduleProcessQueue() {
+        if (!mQueue.isEmpty()) {
+            mHandler.removeCallbacks(mProcessQueueRunnable);
+            mHandler.post(mProcessQueueRunnable);
+        }
+    }
+
+    /**
+     * 在下一个消息里处理排队,不在释放播放器的调用中间回调别的播放器
+     */
+    private final Runnable mProcessQueueRunnable = new Runnable() {
+        @Override
+        public void run() {
+            while (!mQueue.isEmpty() && makeRoom()) {
+                Lease lease = mQueue.poll();
+                grant(lease);
+                mTotalQueueMillis += lease.mQueueMillis;
+                mMaxQueueMillis = Math.max(mMaxQueueMillis, lease.mQueueMillis);
+                Log.d(TAG, "Granted decoder after " + lease.mQueueMillis + "ms in queue");
+                lease.mOwner.onGranted(lease);
+            }
+        }
+    };
+
+    private void onIdle(Lease lease) {
+        mLeases.remove(lease);
+        mLeases.add(lease);  //刚用过,排到最后
+        scheduleProcessQueue();
+    }
+
+    private void onReleased(Lease lease) {
+        if (lease.mGranted) {
+            lease.mGranted = false;
+            mLeases.remove(lease);
+            scheduleProcessQueue();
+        } else {
+            mQueue.remove(lease);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DecoderGovernor{" +
+                "active=" + mLeases.size() +
+                ", max=" + mMaxPlayers +
+                ", waiting=" + mQueue.size() +
+                ", queued=" + mQueuedCount +
+                ", evicted=" + mEvictedCount +
+                ", avgQueue=" + getAverageQueueMillis() +
+                ", maxQueue=" + mMaxQueueMillis +
+                '}';
+    }
+
+    /**
+     * 一个播放器占用的解码器,播放器释放时调用{@link #release()}.
+     * 播放器可以在不同的{@link Owner}之间转移,比如放进播放器池再取出来
+     */
+    static final class Lease {
+
+        private final DecoderGovernor mGovernor;
+        private final long mRequestTime = SystemClock.elapsedRealtime();
+        private Owner mOwner;
+        private boolean mGranted;
+        private boolean mReleased;
+        private boolean mIdle;
+        private long mQueueMillis;
+
+        private Lease(DecoderGovernor governor, Owner owner) {
+            this.mGovernor = governor;
+            this.mOwner = owner;
+        }
+
+        boolean isGranted() {
+            return mGranted;
+        }
+
+        /**
+         * @return 从申请到拿到解码器等了多久,立刻拿到时是0
+         */
+        long getQueueMillis() {
+            return mQueueMillis;
+        }
+
+        void setOwner(Owner owner) {
+            mOwner = owner;
+        }
+
+        /**
+         * 暂停、放在池里等不在播放的播放器是空闲的,别的播放器需要解码器时可以收回
+         */
+        void setIdle(boolean idle) {
+            if (!mGranted || mIdle == idle) {
+                return;
+            }
+            mIdle = idle;
+            if (idle) {
+                mGovernor.onIdle(this);
+            }
+        }
+
+        /**
+         * 播放器释放了,或者不再排队.可以多次调用
+         */
+        void release() {
+            if (!mReleased) {
+                mReleased = true;
+                mGovernor.onReleased(this);
+            }
+        }
+    }
+}
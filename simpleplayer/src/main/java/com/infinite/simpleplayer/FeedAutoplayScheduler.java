@@ -0,0 +1,431 @@
+package com.infinite.simpleplayer;
+
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按可见比例调度列表里的视频:自动播放最可见的条目,沿滚动方向预加载后面一两个条目的开头,
+ * 划出范围的条目取消预加载.快速滑动时只取消不新开,停下来后再决定,划过去的条目不浪费流量.
+ * <p>
+ * 播放交给{@link FeedPlayerManager},预加载需要给它的播放器设置{@link UniversalVideoView#setProxyCacheServer}.
+ * 只按纵向位置排序,只能在主线程调用.滚动中每次计算都复用登记时创建的对象,不分配内存.
+ * <pre>
+ * FeedAutoplayScheduler scheduler = new FeedAutoplayScheduler(manager);
+ * scheduler.attach(recyclerView);
+ * //onBindViewHolder
+ * scheduler.register(holder.videoContainer, uri);
+ * //onViewRecycled
+ * scheduler.unregister(holder.videoContainer);
+ * </pre>
+ */
+public class FeedAutoplayScheduler {
+
+    private static final String TAG = "FeedAutoplayScheduler";
+    private static final float DEFAULT_MIN_VISIBLE_FRACTION = 0.6f;
+    private static final float SWITCH_MARGIN = 0.1f;  //比当前条目多这么多才换,避免两个条目来回切换
+    private static final int DEFAULT_PRELOAD_COUNT = 2;
+    private static final long UPDATE_INTERVAL_MILLIS = 100;  //滚动中最多这么久计算一次
+    private static final long SETTLE_MILLIS = 150;  //这么久没有滚动就算停下来了
+    private static final float FLING_DP_PER_SECOND = 2000;  //超过这个速度算快速滑动
+
+    private final FeedPlayerManager mManager;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<Item> mItems = new ArrayList<>();  //登记的条目,每次计算时按位置原地排序
+    private final List<Uri> mPrefetching = new ArrayList<>();  //最多mPreloadCount个,用列表增删时不分配
+    private final Rect mRect = new Rect();
+    private final int[] mLocation = new int[2];
+    private final float mFlingPixelsPerMillis;
+
+    private View mScrollView;
+    private float mMinVisibleFraction = DEFAULT_MIN_VISIBLE_FRACTION;
+    private int mPreloadCount = DEFAULT_PRELOAD_COUNT;
+    private Uri[] mNearby = new Uri[DEFAULT_PRELOAD_COUNT];  //沿滚动方向要预加载的条目,每次计算时覆盖
+    private int mNearbyCount;
+    private boolean mPreloadPlayer;
+    private Uri mPreloadedPlayerUri;  //自己放进播放器池的,划走时要移除
+    private ViewGroup mActiveContainer;
+    private boolean mForward = true;  //往下滚动
+    private long mLastUpdateTime;
+
+    public FeedAutoplayScheduler(FeedPlayerManager manager) {
+        this.mManager = manager;
+        float density = manager.getVideoView().getResources().getDisplayMetrics().density;
+        this.mFlingPixelsPerMillis = FLING_DP_PER_SECOND * density / 1000;
+    }
+
+    /**
+     * 可见比例达到这个值才自动播放,默认0.6
+     */
+    public void setMinVisibleFraction(float fraction) {
+        mMinVisibleFraction = fraction;
+        scheduleUpdate();
+    }
+
+    /**
+     * 沿滚动方向预加载几个条目的开头,默认2个,0关闭
+     */
+    public void setPreloadCount(int count) {
+        mPreloadCount = Math.max(0, count);
+        mNearby = new Uri[mPreloadCount];
+        mNearbyCount = 0;
+        scheduleUpdate();
+    }
+
+    /**
+     * 下一个条目除了预加载数据,还在播放器池里提前prepare,划过去就能直接播.
+     * 会多占一个解码器,而且会挤掉池里划走的条目,默认关闭.需要{@link FeedPlayerManager}有播放器池
+     */
+    public void setPreloadPlayer(boolean preloadPlayer) {
+        mPreloadPlayer = preloadPlayer;
+        if (!preloadPlayer) {
+            removePreloadedPlayer();
+        }
+        scheduleUpdate();
+    }
+
+    /**
+     * 监听scrollView所在窗口的滚动,一般传列表本身
+     */
+    public void attach(View scrollView) {
+        detach();
+        mScrollView = scrollView;
+        scrollView.getViewTreeObserver().addOnScrollChangedListener(mScrollChangedListener);
+        scheduleUpdate();
+    }
+
+    public void detach() {
+        if (mScrollView == null) {
+            return;
+        }
+        ViewTreeObserver observer = mScrollView.getViewTreeObserver();
+        if (observer.isAlive()) {
+            observer.removeOnScrollChangedListener(mScrollChangedListener);
+        }
+        mScrollView = null;
+        mHandler.removeCallbacks(mUpdateRunnable);
+        mHandler.removeCallbacks(mSettleRunnable);
+    }
+
+    /**
+     * container这一行放的是uri,绑定数据时调用,同一个container重新绑定时直接覆盖
+     */
+    public void register(ViewGroup container, Uri uri) {
+        Item item = find(container);
+        if (item == null) {
+            mItems.add(new Item(container, uri));
+        } else {
+            if (!item.mUri.equals(uri)) {
+                if (container == mActiveContainer) {
+                    deactivate();
+                }
+                cancelPrefetch(item.mUri);
+                item.mUri = uri;
+            }
+            item.mHasTop = false;
+        }
+        scheduleUpdate();
+    }
+
+    /**
+     * 条目被回收时调用,正在播放的话停下来
+     */
+    public void unregister(ViewGroup container) {
+        int index = indexOf(container);
+        Item item = index >= 0 ? mItems.remove(index) : null;
+        if (container == mActiveContainer) {
+            deactivate();
+        }
+        if (item != null) {
+            cancelPrefetch(item.mUri);
+        }
+        scheduleUpdate();
+    }
+
+    /**
+     * 列表数据或布局变了,但是没有滚动时调用
+     */
+    public void update() {
+        mHandler.removeCallbacks(mUpdateRunnable);
+        update(true);
+    }
+
+    /**
+     * 停止播放,取消所有预加载,比如页面不可见或者销毁时.之后还可以继续用
+     */
+    public void stop() {
+        mHandler.removeCallbacks(mUpdateRunnable);
+        mHandler.removeCallbacks(mSettleRunnable);
+        deactivate();
+        for (int i = mPrefetching.size() - 1; i >= 0; i--) {
+            cancelPrefetch(mPrefetching.get(i));
+        }
+        removePreloadedPlayer();
+    }
+
+    private void scheduleUpdate() {
+        mHandler.removeCallbacks(mUpdateRunnable);
+        mHandler.post(mUpdateRunnable);
+    }
+
+    private final ViewTreeObserver.OnScrollChangedListener mScrollChangedListener =
+            new ViewTreeObserver.OnScrollChangedListener() {
+                @Override
+                public void onScrollChanged() {
+                    long now = SystemClock.uptimeMillis();
+                    mHandler.removeCallbacks(mSettleRunnable);
+                    mHandler.postDelayed(mSettleRunnable, SETTLE_MILLIS);
+                    if (now - mLastUpdateTime >= UPDATE_INTERVAL_MILLIS) {
+                        update(false);
+                    }
+                }
+            };
+
+    private final Runnable mUpdateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            update(true);
+        }
+    };
+
+    private final Runnable mSettleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            update(true);
+        }
+    };
+
+    /**
+     * @param settled 已经停止滚动,不管速度直接决定播放和预加载
+     */
+    private void update(boolean settled) {
+        long now = SystemClock.uptimeMillis();
+        long elapsed = now - mLastUpdateTime;
+        mLastUpdateTime = now;
+
+        long maxDistance = 0;
+        int directionSum = 0;
+        for (int i = 0; i < mItems.size(); i++) {
+            Item item = mItems.get(i);
+            item.mFraction = visibleFraction(item.mContainer);
+            item.mContainer.getLocationOnScreen(mLocation);
+            int top = mLocation[1];
+            if (item.mHasTop) {
+                int distance = top - item.mTop;
+                maxDistance = Math.max(maxDistance, Math.abs(distance));
+                directionSum += distance;
+            }
+            item.mTop = top;
+            item.mHasTop = true;
+        }
+        if (directionSum != 0) {
+            mForward = directionSum < 0;  //内容往上移就是往下滚动
+        }
+        sortByTop();
+
+        boolean flinging = !settled && elapsed > 0 && maxDistance > mFlingPixelsPerMillis * elapsed;
+        if (flinging) {
+            //快速滑动:当前条目划出去了就停下,预加载只保留还在附近的,不新开
+            Item active = find(mActiveContainer);
+            if (active != null && active.mFraction < mMinVisibleFraction) {
+                deactivate();
+            }
+            findNearby(indexOfMostVisible());
+            retainPrefetches();
+            return;
+        }
+
+        int anchor = chooseActive();
+        if (anchor >= 0) {
+            Item item = mItems.get(anchor);
+            if (item.mContainer != mActiveContainer) {
+                activate(item);
+            }
+        } else {
+            deactivate();
+            anchor = indexOfMostVisible();
+        }
+        preload(anchor);
+    }
+
+    /**
+     * 按位置插入排序:条目不多,和上次的顺序也基本一样,几乎不用移动
+     */
+    private void sortByTop() {
+        for (int i = 1; i < mItems.size(); i++) {
+            Item item = mItems.get(i);
+            int j = i - 1;
+            while (j >= 0 && mItems.get(j).mTop > item.mTop) {
+                mItems.set(j + 1, mItems.get(j));
+                j--;
+            }
+            mItems.set(j + 1, item);
+        }
+    }
+
+    /**
+     * @return 应该播放的条目,没有足够可见的条目时返回-1
+     */
+    private int chooseActive() {
+        int best = indexOfMostVisible();
+        if (best < 0 || mItems.get(best).mFraction < mMinVisibleFraction) {
+            return -1;
+        }
+        int active = indexOf(mActiveContainer);
+        if (active >= 0 && mItems.get(active).mFraction >= mMinVisibleFraction
+                && mItems.get(best).mFraction - mItems.get(active).mFraction < SWITCH_MARGIN) {
+            return active;
+        }
+        return best;
+    }
+
+    private void activate(Item item) {
+        deactivate();
+        mActiveContainer = item.mContainer;
+        if (item.mUri.equals(mPreloadedPlayerUri)) {
+            mPreloadedPlayerUri = null;  //播放时从池里取走了
+        }
+        cancelPrefetch(item.mUri);  //开始播放后由播放器自己读
+        Log.d(TAG, "Autoplay " + item.mUri + ", visible " + item.mFraction);
+        mManager.play(item.mContainer, item.mUri);
+    }
+
+    private void deactivate() {
+        if (mActiveContainer != null) {
+            mManager.stop(mActiveContainer);
+            mActiveContainer = null;
+        }
+    }
+
+    private void preload(int anchor) {
+        findNearby(anchor);
+        retainPrefetches();
+        UniversalVideoView videoView = mManager.getVideoView();
+        if (videoView.getProxyCacheServer() != null) {  //没有代理时不会预加载,不能记成正在预加载
+            for (int i = 0; i < mNearbyCount; i++) {
+                Uri uri = mNearby[i];
+                if (!mPrefetching.contains(uri)) {
+                    mPrefetching.add(uri);
+                    videoView.prefetch(uri);
+                }
+            }
+        }
+        MediaPlayerPool pool = mManager.getPlayerPool();
+        Uri next = mNearbyCount > 0 ? mNearby[0] : null;
+        if (mPreloadPlayer && pool != null && next != null && !next.equals(mPreloadedPlayerUri)) {
+            removePreloadedPlayer();
+            pool.preload(next);
+            mPreloadedPlayerUri = next;
+        }
+    }
+
+    /**
+     * 沿滚动方向从anchor往后数mPreloadCount个条目放进mNearby,不包括正在播放的
+     */
+    private void findNearby(int anchor) {
+        mNearbyCount = 0;
+        if (anchor < 0) {
+            return;
+        }
+        int step = mForward ? 1 : -1;
+        for (int i = anchor + step; i >= 0 && i < mItems.size() && mNearbyCount < mNearby.length; i += step) {
+            Item item = mItems.get(i);
+            if (item.mContainer != mActiveContainer && !isNearby(item.mUri)) {
+                mNearby[mNearbyCount++] = item.mUri;
+            }
+        }
+    }
+
+    private boolean isNearby(Uri uri) {
+        for (int i = 0; i < mNearbyCount; i++) {
+            if (mNearby[i].equals(uri)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 取消不在mNearby里的预加载
+     */
+    private void retainPrefetches() {
+        for (int i = mPrefetching.size() - 1; i >= 0; i--) {
+            Uri uri = mPrefetching.get(i);
+            if (!isNearby(uri)) {
+                cancelPrefetch(uri);
+            }
+        }
+        if (mPreloadedPlayerUri != null && !isNearby(mPreloadedPlayerUri)) {
+            removePreloadedPlayer();
+        }
+    }
+
+    private void cancelPrefetch(Uri uri) {
+        if (mPrefetching.remove(uri)) {
+            mManager.getVideoView().cancelPrefetch(uri);
+        }
+    }
+
+    private void removePreloadedPlayer() {
+        MediaPlayerPool pool = mManager.getPlayerPool();
+        if (mPreloadedPlayerUri != null && pool != null) {
+            pool.remove(mPreloadedPlayerUri);
+        }
+        mPreloadedPlayerUri = null;
+    }
+
+    private float visibleFraction(View view) {
+        int area = view.getWidth() * view.getHeight();
+        if (area <= 0 || !view.isShown() || !view.getGlobalVisibleRect(mRect)) {
+            return 0;
+        }
+        return (float) (mRect.width() * mRect.height()) / area;
+    }
+
+    private int indexOfMostVisible() {
+        int best = -1;
+        for (int i = 0; i < mItems.size(); i++) {
+            if (mItems.get(i).mFraction > 0 && (best < 0 || mItems.get(i).mFraction > mItems.get(best).mFraction)) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private int indexOf(ViewGroup container) {
+        for (int i = 0; i < mItems.size(); i++) {
+            if (mItems.get(i).mContainer == container) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Item find(ViewGroup container) {
+        int index = indexOf(container);
+        return index >= 0 ? mItems.get(index) : null;
+    }
+
+    private static final class Item {
+
+        final ViewGroup mContainer;
+        Uri mUri;
+        float mFraction;
+        int mTop;
+        boolean mHasTop;  //mTop是上次计算时的位置,用来算滚动方向和速度
+
+        Item(ViewGroup container, Uri uri) {
+            this.mContainer = container;
+            this.mUri = uri;
+        }
+    }
+}
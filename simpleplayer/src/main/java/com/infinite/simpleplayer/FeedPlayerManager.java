@@ -0,0 +1,138 @@
+package com.infinite.simpleplayer;
+
+import android.content.Context;
+import android.net.Uri;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 视频列表用的共享播放器:整个列表只有一个{@link UniversalVideoView},谁是当前条目就移到谁的容器里,
+ * 不用每一行都放一个播放器和Surface.
+ * <p>
+ * 用TextureView显示,跟着列表滚动不会错位,移动时也不用重建Surface.
+ * 划走的条目的播放器暂停后留在播放器池里(最多maxPlayers - 1个),划回来时直接接着播,不用重新prepare和缓冲;
+ * 超出的释放掉,只记住位置,回来时从原来的位置重新打开.只能在主线程调用.
+ * <pre>
+ * FeedPlayerManager manager = new FeedPlayerManager(context, 2);
+ * //条目成为当前条目时,container是这一行里放视频的空FrameLayout
+ * manager.play(holder.videoContainer, uri);
+ * //条目被回收或者划出屏幕时
+ * manager.stop(holder.videoContainer);
+ * </pre>
+ */
+public class FeedPlayerManager {
+
+    private static final int MAX_POSITIONS = 500;  //记住位置的条目数上限
+
+    private final UniversalVideoView mVideoView;
+    private final MediaPlayerPool mPlayerPool;  //maxPlayers为1时为空
+    private final Map<Uri, Integer> mPositions = new LinkedHashMap<Uri, Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Uri, Integer> eldest) {
+            return size() > MAX_POSITIONS;
+        }
+    };
+    private Uri mActiveUri;
+
+    /**
+     * @param maxPlayers 同时存在的MediaPlayer数量,包括正在播放的,每个都占一个解码器
+     */
+    public FeedPlayerManager(Context context, int maxPlayers) {
+        mVideoView = new UniversalVideoView(context);
+        mVideoView.setRenderMode(UniversalVideoView.RENDER_MODE_TEXTURE);
+        mPlayerPool = maxPlayers > 1 ? new MediaPlayerPool(context, maxPlayers - 1) : null;
+        mVideoView.setPlayerPool(mPlayerPool);
+    }
+
+    /**
+     * 共享的播放器,用来设置控制器、回调、缓存代理等.不要自己添加到界面上
+     */
+    public UniversalVideoView getVideoView() {
+        return mVideoView;
+    }
+
+    /**
+     * 有缓存代理时播放器池也要通过代理准备
+     */
+    public MediaPlayerPool getPlayerPool() {
+        return mPlayerPool;
+    }
+
+    /**
+     * 把播放器移到container里播放uri,上一个条目的播放器暂停后留在池里
+     */
+    public void play(ViewGroup container, Uri uri) {
+        if (!uri.equals(mActiveUri)) {
+            deactivate();
+        }
+        if (mVideoView.getParent() != container) {
+            detachVideoView();
+            container.addView(mVideoView, new ViewGroup.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        }
+        if (!uri.equals(mActiveUri)) {
+            mActiveUri = uri;
+            mVideoView.setVideoURI(uri);
+            Integer position = mPositions.get(uri);
+            if (position != null && position > 0) {
+                mVideoView.seekTo(position);
+            }
+        }
+        mVideoView.start();
+    }
+
+    /**
+     * container里的条目不再是当前条目,比如被回收或者划出屏幕.播放器不在这个container里时忽略
+     */
+    public void stop(ViewGroup container) {
+        if (mVideoView.getParent() == container) {
+            deactivate();
+            detachVideoView();
+        }
+    }
+
+    /**
+     * @return 记住的位置,没有播放过时返回0
+     */
+    public int getPosition(Uri uri) {
+        if (uri.equals(mActiveUri)) {
+            return mVideoView.getCurrentPosition();
+        }
+        Integer position = mPositions.get(uri);
+        return position != null ? position : 0;
+    }
+
+    /**
+     * 释放所有播放器,比如Activity销毁时
+     */
+    public void release() {
+        deactivate();
+        detachVideoView();
+        mVideoView.stopPlayback();
+        if (mPlayerPool != null) {
+            mPlayerPool.clear();
+        }
+    }
+
+    private void deactivate() {
+        if (mActiveUri == null) {
+            return;
+        }
+        int position = mVideoView.getCurrentPosition();
+        if (position > 0) {
+            mPositions.put(mActiveUri, position);
+        }
+        mVideoView.parkPlayer();
+        mActiveUri = null;
+    }
+
+    private void detachVideoView() {
+        ViewParent parent = mVideoView.getParent();
+        if (parent instanceof ViewGroup) {
+            ((ViewGroup) parent).removeView(mVideoView);
+        }
+    }
+}
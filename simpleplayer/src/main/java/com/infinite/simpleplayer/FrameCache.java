@@ -0,0 +1,246 @@
+package com.infinite.simpleplayer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * 恢复播放时先盖在画面上的帧:暂停或者离开时截下当前帧,缩小后放进内存和磁盘的LRU缓存,
+ * 按视频地址和位置(精确到秒)查找.重新打开视频时先显示它,第一帧渲染出来后再去掉,重新prepare期间不会黑屏.
+ * <p>
+ * TextureView模式由{@link UniversalVideoView}直接读出当前帧交给{@link #put};SurfaceView的画面读不到,
+ * 用{@link #capture}在后台线程通过MediaMetadataRetriever取那个位置的帧.
+ * 取帧、压缩和读写文件都在后台线程,结果在主线程回调.应用内共用{@link #getInstance(Context)}
+ */
+public class FrameCache {
+
+    private static final String TAG = "FrameCache";
+    private static final String DIR_NAME = "simpleplayer_frames";
+    static final int MAX_WIDTH = 480;  //缩小到这个宽度,只是盖一两秒,不需要原始清晰度
+    private static final int MAX_MEMORY_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_DISK_FILES = 50;
+    private static final int JPEG_QUALITY = 80;
+
+    private static FrameCache sInstance;
+
+    public interface Callback {
+
+        /**
+         * 在主线程回调,没有找到时不回调
+         */
+        void onFrameLoaded(Uri uri, int positionMillis, Bitmap frame);
+    }
+
+    private final Context mContext;
+    private final File mDir;
+    private final Handler mHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<String, Bitmap> mMemoryCache;
+
+    public static synchronized FrameCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new FrameCache(context, new File(context.getApplicationContext().getCacheDir(), DIR_NAME));
+        }
+        return sInstance;
+    }
+
+    FrameCache(Context context, File dir) {
+        this.mContext = context.getApplicationContext();
+        this.mDir = dir;
+        int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 32, MAX_MEMORY_BYTES);
+        this.mMemoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        HandlerThread thread = new HandlerThread("Frame cache", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * 保存已经截好的帧,比如从TextureView读出来的.frame交给缓存,调用方不能再修改或回收
+     */
+    public void put(Uri uri, int positionMillis, Bitmap frame) {
+        final String key = key(uri, positionMillis);
+        final Bitmap scaled = scale(frame);
+        if (scaled != frame) {
+            frame.recycle();
+        }
+        mMemoryCache.put(key, scaled);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                write(key, scaled);
+            }
+        });
+    }
+
+    /**
+     * 在后台线程从视频里取这个位置的帧
+     *
+     * @param dataSource 取帧用的地址,开启了缓存时传代理地址,可以直接读已经缓存的数据
+     */
+    public void capture(Uri uri, final Uri dataSource, final int positionMillis) {
+        final String key = key(uri, positionMillis);
+        if (mMemoryCache.get(key) != null) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap frame = retrieveFrame(dataSource, positionMillis);
+                if (frame != null) {
+                    mMemoryCache.put(key, frame);
+                    write(key, frame);
+                }
+            }
+        });
+    }
+
+    /**
+     * 先查内存,没有时在后台线程读文件
+     */
+    public void load(final Uri uri, final int positionMillis, final Callback callback) {
+        final String key = key(uri, positionMillis);
+        Bitmap cached = mMemoryCache.get(key);
+        if (cached != null) {
+            callback.onFrameLoaded(uri, positionMillis, cached);
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                File file = getFile(key);
+                final Bitmap frame = file.exists() ? BitmapFactory.decodeFile(file.getPath()) : null;
+                if (frame == null) {
+                    return;
+                }
+                file.setLastModified(System.currentTimeMillis());  //最近用过,淘汰时排在后面
+                mMemoryCache.put(key, frame);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onFrameLoaded(uri, positionMillis, frame);
+                    }
+                });
+            }
+        });
+    }
+
+    private Bitmap retrieveFrame(Uri dataSource, int positionMillis) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            RetrieverUtils.setDataSource(retriever, mContext, dataSource);
+            //恢复播放时是精确定位,这里也取精确的帧,在后台线程慢一点没关系
+            Bitmap frame = retriever.getFrameAtTime(positionMillis * 1000L, MediaMetadataRetriever.OPTION_CLOSEST);
+            if (frame == null) {
+                return null;
+            }
+            Bitmap scaled = scale(frame);
+            if (scaled != frame) {
+                frame.recycle();
+            }
+            return scaled;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Error capturing frame at " + positionMillis + " of " + dataSource, e);
+            return null;
+        } finally {
+            retriever.release();
+        }
+    }
+
+    /**
+     * 在后台线程压缩写入文件,超过数量时删除最久没用过的
+     */
+    private void write(String key, Bitmap frame) {
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            Log.w(TAG, "Error creating " + mDir);
+            return;
+        }
+        File file = getFile(key);
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(file);
+            frame.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, output);
+        } catch (IOException e) {
+            Log.w(TAG, "Error writing " + file, e);
+            file.delete();
+            return;
+        } finally {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Error closing " + file, e);
+                }
+            }
+        }
+        trimDisk();
+    }
+
+    private void trimDisk() {
+        File[] files = mDir.listFiles();
+        if (files == null || files.length <= MAX_DISK_FILES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length - MAX_DISK_FILES; i++) {
+            files[i].delete();
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(mDir, md5(key) + ".jpg");
+    }
+
+    private static Bitmap scale(Bitmap frame) {
+        if (frame.getWidth() <= MAX_WIDTH) {
+            return frame;
+        }
+        int height = Math.max(1, frame.getHeight() * MAX_WIDTH / frame.getWidth());
+        return Bitmap.createScaledBitmap(frame, MAX_WIDTH, height, true);
+    }
+
+    private static String key(Uri uri, int positionMillis) {
+        return uri + "#" + positionMillis / 1000;
+    }
+
+    private static String md5(String string) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(string.getBytes("utf-8"));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
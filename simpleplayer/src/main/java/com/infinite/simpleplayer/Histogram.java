@@ -0,0 +1,107 @@
+package com.infinite.simpleplayer;
+
+import java.util.Arrays;
+
+/**
+ * 毫秒耗时的分桶直方图,只用基本类型数组,记录时不分配对象.
+ * 桶的上界固定,百分位按桶上界估算.只在主线程使用.
+ */
+public class Histogram {
+
+    private static final long[] DEFAULT_BOUNDS = {50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+    private final long[] mBounds;
+    private final long[] mCounts;  //最后一个桶放超过最大上界的值
+    private long mCount;
+    private long mTotal;
+    private long mMax;
+
+    public Histogram() {
+        this(DEFAULT_BOUNDS);
+    }
+
+    /**
+     * @param bounds 从小到大排列的桶上界(包含)
+     */
+    public Histogram(long[] bounds) {
+        this.mBounds = bounds.clone();
+        this.mCounts = new long[bounds.length + 1];
+    }
+
+    public void record(long millis) {
+        int bucket = 0;
+        while (bucket < mBounds.length && millis > mBounds[bucket]) {
+            bucket++;
+        }
+        mCounts[bucket]++;
+        mCount++;
+        mTotal += millis;
+        if (millis > mMax) {
+            mMax = millis;
+        }
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getTotal() {
+        return mTotal;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public long getMean() {
+        return mCount == 0 ? 0 : mTotal / mCount;
+    }
+
+    /**
+     * @param percentile 0到100
+     * @return 所在桶的上界,落在最后一个桶时返回最大值
+     */
+    public long getPercentile(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(mCount * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < mBounds.length; i++) {
+            seen += mCounts[i];
+            if (seen >= target) {
+                return Math.min(mBounds[i], mMax);
+            }
+        }
+        return mMax;
+    }
+
+    /**
+     * @return 桶上界,比桶的数量少一个
+     */
+    public long[] getBounds() {
+        return mBounds.clone();
+    }
+
+    public long[] getCounts() {
+        return mCounts.clone();
+    }
+
+    public void reset() {
+        Arrays.fill(mCounts, 0);
+        mCount = 0;
+        mTotal = 0;
+        mMax = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Histogram{" +
+                "count=" + mCount +
+                ", mean=" + getMean() +
+                ", p50=" + getPercentile(50) +
+                ", p90=" + getPercentile(90) +
+                ", max=" + mMax +
+                '}';
+    }
+}
@@ -0,0 +1,212 @@
+package com.infinite.simpleplayer;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.util.Log;
+
+import com.infinite.simpleplayer.cache.HttpProxyCacheServer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * 预先准备好的MediaPlayer池:提前对即将播放的视频调用prepareAsync,
+ * {@link UniversalVideoView}播放这个视频时直接接管,省掉创建和prepare的时间.
+ * <p>
+ * 每个准备好的MediaPlayer都占用一个解码器,低端机解码器很少,所以同时准备的数量有上限,
+ * 超出时释放最早的.池里的播放器都算空闲,{@link DecoderGovernor}需要解码器时也会收回.只能在主线程调用.
+ * <pre>
+ * MediaPlayerPool pool = new MediaPlayerPool(context, 1);
+ * videoView.setPlayerPool(pool);
+ * pool.preload(nextUri);
+ * </pre>
+ */
+public class MediaPlayerPool {
+
+    private static final String TAG = "MediaPlayerPool";
+
+    private Context mContext;
+    private int mMaxPrepared;
+    private HttpProxyCacheServer mProxyCacheServer;
+    private final LinkedHashMap<Uri, PooledPlayer> mPlayers = new LinkedHashMap<>();  //按加入顺序,最早的先释放
+
+    /**
+     * @param maxPrepared 同时准备的MediaPlayer数量上限
+     */
+    public MediaPlayerPool(Context context, int maxPrepared) {
+        this.mContext = context.getApplicationContext();
+        this.mMaxPrepared = Math.max(1, maxPrepared);
+    }
+
+    /**
+     * 设置后网络视频通过本地代理准备,和{@link UniversalVideoView#setProxyCacheServer}用同一个实例
+     */
+    public void setProxyCacheServer(HttpProxyCacheServer server) {
+        mProxyCacheServer = server;
+    }
+
+    public void setMaxPrepared(int maxPrepared) {
+        mMaxPrepared = Math.max(1, maxPrepared);
+        trimToSize(mMaxPrepared);
+    }
+
+    public int getMaxPrepared() {
+        return mMaxPrepared;
+    }
+
+    /**
+     * 开始准备uri,已经在池里或者没有空闲的解码器时什么都不做
+     */
+    public void preload(Uri uri) {
+        if (mPlayers.containsKey(uri)) {
+            return;
+        }
+        trimToSize(mMaxPrepared - 1);
+        DecoderGovernor.Lease lease = DecoderGovernor.getInstance().tryAcquire(mLeaseOwner);
+        if (lease == null) {
+            Log.d(TAG, "No free decoder, skip preload " + uri);
+            return;
+        }
+        lease.setIdle(true);
+        PooledPlayer player = new PooledPlayer(uri, lease);
+        player.prepareAsync(mContext, mProxyCacheServer != null ? mProxyCacheServer.getProxyUri(uri) : uri);
+        mPlayers.put(uri, player);
+    }
+
+    /**
+     * 取出uri对应的MediaPlayer,之后由调用方负责释放,解码器也一起转给调用方
+     *
+     * @return 不在池里或者准备失败时返回null
+     */
+    PooledPlayer acquire(Uri uri) {
+        PooledPlayer player = mPlayers.remove(uri);
+        if (player != null && player.mError) {
+            player.release();
+            return null;
+        }
+        if (player != null) {
+            Log.d(TAG, "Reuse " + (player.mPrepared ? "prepared" : "preparing") + " player for " + uri);
+        }
+        return player;
+    }
+
+    /**
+     * 放回一个已经准备好的播放器,比如列表里划走的视频,再播放时直接接管,停在原来的位置
+     */
+    void put(Uri uri, MediaPlayer mediaPlayer, DecoderGovernor.Lease lease) {
+        remove(uri);
+        trimToSize(mMaxPrepared - 1);
+        lease.setOwner(mLeaseOwner);
+        lease.setIdle(true);
+        PooledPlayer player = new PooledPlayer(uri, mediaPlayer, lease);
+        player.mPrepared = true;
+        player.listen();
+        mPlayers.put(uri, player);
+        Log.d(TAG, "Keep prepared player for " + uri);
+    }
+
+    public void remove(Uri uri) {
+        PooledPlayer player = mPlayers.remove(uri);
+        if (player != null) {
+            player.release();
+        }
+    }
+
+    /**
+     * 释放池里所有的MediaPlayer,比如Activity销毁时
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    public int size() {
+        return mPlayers.size();
+    }
+
+    private final DecoderGovernor.Owner mLeaseOwner = new DecoderGovernor.Owner() {
+        @Override
+        public void onGranted(DecoderGovernor.Lease lease) {
+            //只用tryAcquire,不会排队
+        }
+
+        @Override
+        public void onEvict(DecoderGovernor.Lease lease) {
+            Iterator<PooledPlayer> iterator = mPlayers.values().iterator();
+            while (iterator.hasNext()) {
+                PooledPlayer player = iterator.next();
+                if (player.mLease == lease) {
+                    Log.d(TAG, "Decoder reclaimed, release pooled player for " + player.mUri);
+                    iterator.remove();
+                    player.release();
+                    return;
+                }
+            }
+            lease.release();
+        }
+    };
+
+    private void trimToSize(int maxSize) {
+        Iterator<PooledPlayer> iterator = mPlayers.values().iterator();
+        while (mPlayers.size() > maxSize && iterator.hasNext()) {
+            PooledPlayer player = iterator.next();
+            iterator.remove();
+            player.release();
+        }
+    }
+
+    /**
+     * 池里的一个MediaPlayer,接管前只监听准备完成和出错
+     */
+    static final class PooledPlayer {
+
+        final Uri mUri;
+        final MediaPlayer mMediaPlayer;
+        final DecoderGovernor.Lease mLease;
+        boolean mPrepared;
+        boolean mError;
+
+        private final MediaPlayer.OnErrorListener mErrorListener = new MediaPlayer.OnErrorListener() {
+            @Override
+            public boolean onError(MediaPlayer mp, int what, int extra) {
+                Log.w(TAG, "Error preparing " + mUri + ", what=" + what + ", extra=" + extra);
+                mError = true;
+                return true;
+            }
+        };
+
+        PooledPlayer(Uri uri, DecoderGovernor.Lease lease) {
+            this(uri, new MediaPlayer(), lease);
+        }
+
+        PooledPlayer(Uri uri, MediaPlayer mediaPlayer, DecoderGovernor.Lease lease) {
+            this.mUri = uri;
+            this.mMediaPlayer = mediaPlayer;
+            this.mLease = lease;
+        }
+
+        void prepareAsync(Context context, Uri dataSource) {
+            listen();
+            PlayerThread.getInstance().prepareAsync(mMediaPlayer, context, dataSource, null, mErrorListener);
+        }
+
+        /**
+         * 在池里只监听准备完成和出错,放回来的播放器先清掉原来的监听
+         */
+        void listen() {
+            PlayerThread.clearListeners(mMediaPlayer);
+            mMediaPlayer.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+                @Override
+                public void onPrepared(MediaPlayer mp) {
+                    mPrepared = true;
+                }
+            });
+            mMediaPlayer.setOnErrorListener(mErrorListener);
+        }
+
+        void release() {
+            PlayerThread.getInstance().release(mMediaPlayer);
+            mLease.release();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.infinite.simpleplayer;
+
+import android.net.Uri;
+import android.os.SystemClock;
+
+/**
+ * 一次播放的启动耗时:从setVideoURI开始,依次记录数据源设置完成、准备完成、Surface就绪和第一帧渲染的时间.
+ * 所有时间都是相对setVideoURI的毫秒数,还没到达的阶段返回-1.
+ */
+public class PlaybackMetrics {
+
+    public interface Listener {
+
+        /**
+         * 第一帧画面渲染出来了,启动耗时统计完成
+         */
+        void onFirstFrameRendered(PlaybackMetrics metrics);
+    }
+
+    private final Uri mUri;
+    private final long mOpenTime;
+    private volatile long mDataSourceSetTime;  //在播放器线程写入
+    private long mPreparedTime;
+    private long mSurfaceReadyTime;
+    private long mFirstFrameTime;
+    private boolean mReusedPlayer;
+    private long mDecoderQueueMillis;
+
+    PlaybackMetrics(Uri uri) {
+        this.mUri = uri;
+        this.mOpenTime = SystemClock.elapsedRealtime();
+    }
+
+    public Uri getUri() {
+        return mUri;
+    }
+
+    /**
+     * @return setVideoURI的时间,{@link SystemClock#elapsedRealtime()}
+     */
+    public long getOpenTime() {
+        return mOpenTime;
+    }
+
+    public long getDataSourceSetMillis() {
+        return sinceOpen(mDataSourceSetTime);
+    }
+
+    public long getPreparedMillis() {
+        return sinceOpen(mPreparedTime);
+    }
+
+    public long getSurfaceReadyMillis() {
+        return sinceOpen(mSurfaceReadyTime);
+    }
+
+    /**
+     * @return 首帧耗时,还没渲染时返回-1
+     */
+    public long getFirstFrameMillis() {
+        return sinceOpen(mFirstFrameTime);
+    }
+
+    public boolean isFirstFrameRendered() {
+        return mFirstFrameTime > 0;
+    }
+
+    /**
+     * @return 是否直接接管了播放器池或者播放列表里已经准备好的播放器
+     */
+    public boolean isReusedPlayer() {
+        return mReusedPlayer;
+    }
+
+    /**
+     * @return 等{@link DecoderGovernor}分配解码器用了多久,没有排队时是0
+     */
+    public long getDecoderQueueMillis() {
+        return mDecoderQueueMillis;
+    }
+
+    private long sinceOpen(long time) {
+        return time > 0 ? time - mOpenTime : -1;
+    }
+
+    void markDataSourceSet() {
+        if (mDataSourceSetTime == 0) {
+            mDataSourceSetTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    void markPrepared() {
+        if (mPreparedTime == 0) {
+            mPreparedTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    void markSurfaceReady() {
+        if (mSurfaceReadyTime == 0) {
+            mSurfaceReadyTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * @return 第一次调用时返回true
+     */
+    boolean markFirstFrame() {
+        if (mFirstFrameTime != 0) {
+            return false;
+        }
+        mFirstFrameTime = SystemClock.elapsedRealtime();
+        return true;
+    }
+
+    void setReusedPlayer(boolean reusedPlayer) {
+        mReusedPlayer = reusedPlayer;
+    }
+
+    void setDecoderQueueMillis(long decoderQueueMillis) {
+        mDecoderQueueMillis = decoderQueueMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "PlaybackMetrics{" +
+                "uri=" + mUri +
+                ", dataSourceSet=" + getDataSourceSetMillis() +
+                ", prepared=" + getPreparedMillis() +
+                ", surfaceReady=" + getSurfaceReadyMillis() +
+                ", firstFrame=" + getFirstFrameMillis() +
+                ", reusedPlayer=" + mReusedPlayer +
+                ", decoderQueue=" + mDecoderQueueMillis +
+                '}';
+    }
+}
@@ -0,0 +1,278 @@
+package com.infinite.simpleplayer;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 播放器线程:setDataSource、prepareAsync、stop、reset、release这些可能阻塞几十到几百毫秒的调用
+ * 都放到这里排队执行,主线程不会卡在媒体框架上.
+ * <p>
+ * 所有播放器共用一个线程,命令按提交顺序执行,所以同一个播放器的调用顺序不变.
+ * 每个命令都会记录排队和执行的耗时,执行太久时看门狗会打印警告.
+ * <p>
+ * 快速切换视频时可以用{@link #releaseInBackground}在单独的释放线程销毁旧播放器,
+ * 新视频的prepare不用排在旧播放器的release后面.
+ */
+public class PlayerThread {
+
+    private static final String TAG = "PlayerThread";
+    private static final long SLOW_COMMAND_MILLIS = 100;  //超过这个时间打印耗时
+    private static final long WATCHDOG_MILLIS = 2000;  //命令执行超过这个时间还没返回,打印警告
+
+    private static PlayerThread sInstance;
+
+    public interface CommandListener {
+
+        /**
+         * 每个命令执行完后在执行它的线程回调
+         *
+         * @param name       命令名称
+         * @param waitMillis 在队列里等待的时间
+         * @param runMillis  执行的时间
+         */
+        void onCommandExecuted(String name, long waitMillis, long runMillis);
+    }
+
+    private final Handler mHandler;
+    private Handler mReleaseHandler;  //第一次用到时才创建释放线程
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private volatile CommandListener mCommandListener;
+
+    public static synchronized PlayerThread getInstance() {
+        if (sInstance == null) {
+            sInstance = new PlayerThread();
+        }
+        return sInstance;
+    }
+
+    private PlayerThread() {
+        HandlerThread thread = new HandlerThread("Player");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * 监听每个命令的耗时,用来统计主线程省下的时间或者发现卡住的设备
+     */
+    public void setCommandListener(CommandListener listener) {
+        mCommandListener = listener;
+    }
+
+    /**
+     * 在播放器线程执行命令
+     *
+     * @param name 命令名称,用于耗时统计
+     */
+    void post(String name, Runnable command) {
+        mHandler.post(new Command(name, command));
+    }
+
+    /**
+     * 把播放器线程的结果交回主线程
+     */
+    void postToMain(Runnable runnable) {
+        mMainHandler.post(runnable);
+    }
+
+    /**
+     * 设置数据源和显示并开始异步准备.设置数据源失败时在主线程回调errorListener
+     *
+     * @param display 为空时不设置,接管前只准备不显示
+     */
+    void prepareAsync(MediaPlayer mediaPlayer, Context context, Uri uri,
+                      RenderView display, MediaPlayer.OnErrorListener errorListener) {
+        prepareAsync(mediaPlayer, context, uri, display, errorListener, null, null, 0);
+    }
+
+    /**
+     * 和{@link #prepareAsync(MediaPlayer, Context, Uri, RenderView, MediaPlayer.OnErrorListener)}一样,
+     * 但是轮到执行时generation已经不等于expectedGeneration的话直接跳过,说明这个播放器已经被新的请求替换了
+     *
+     * @param dataSourceSet 不为空时在setDataSource返回后在播放器线程执行,用于统计耗时
+     */
+    void prepareAsync(final MediaPlayer mediaPlayer, final Context context, final Uri uri,
+                      final RenderView display, final MediaPlayer.OnErrorListener errorListener,
+                      final Runnable dataSourceSet, final AtomicInteger generation, final int expectedGeneration) {
+        post("prepare", new Runnable() {
+            @Override
+            public void run() {
+                if (generation != null && generation.get() != expectedGeneration) {
+                    Log.d(TAG, "Skip superseded prepare " + uri);
+                    return;
+                }
+                try {
+                    mediaPlayer.setDataSource(context, uri);
+                    if (dataSourceSet != null) {
+                        dataSourceSet.run();
+                    }
+                    mediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+                    if (display != null) {
+                        display.bindTo(mediaPlayer);
+                    }
+                    mediaPlayer.prepareAsync();
+                } catch (IOException | RuntimeException e) {
+                    //SecurityException、IllegalStateException也要回调,否则一直停在准备中
+                    Log.w(TAG, "Error setting data source " + uri, e);
+                    postToMain(new Runnable() {
+                        @Override
+                        public void run() {
+                            errorListener.onError(mediaPlayer, MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    void setDisplay(final MediaPlayer mediaPlayer, final RenderView display) {
+        post("setDisplay", new Runnable() {
+            @Override
+            public void run() {
+                display.bindTo(mediaPlayer);
+            }
+        });
+    }
+
+    /**
+     * 断开显示但不释放播放器,Surface被销毁后保留播放器时用
+     */
+    void detachDisplay(final MediaPlayer mediaPlayer) {
+        post("detachDisplay", new Runnable() {
+            @Override
+            public void run() {
+                mediaPlayer.setDisplay(null);
+            }
+        });
+    }
+
+    /**
+     * 停止并释放播放器,调用之后不能再使用mediaPlayer
+     */
+    void stop(final MediaPlayer mediaPlayer) {
+        clearListeners(mediaPlayer);
+        post("stop", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mediaPlayer.stop();
+                } finally {
+                    mediaPlayer.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * 重置并释放播放器,调用之后不能再使用mediaPlayer
+     */
+    void release(final MediaPlayer mediaPlayer) {
+        clearListeners(mediaPlayer);
+        post("release", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mediaPlayer.reset();
+                } finally {
+                    mediaPlayer.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * 在释放线程重置并释放播放器,不阻塞播放器线程上后面的命令.
+     * 先在播放器线程断开显示,排在后面的新播放器才能连上同一个Surface
+     */
+    void releaseInBackground(final MediaPlayer mediaPlayer) {
+        clearListeners(mediaPlayer);
+        post("detach", new Runnable() {
+            @Override
+            public void run() {
+                mediaPlayer.setDisplay(null);
+                getReleaseHandler().post(new Command("backgroundRelease", new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            mediaPlayer.reset();
+                        } finally {
+                            mediaPlayer.release();
+                        }
+                    }
+                }));
+            }
+        });
+    }
+
+    private synchronized Handler getReleaseHandler() {
+        if (mReleaseHandler == null) {
+            HandlerThread thread = new HandlerThread("Player releaser");
+            thread.start();
+            mReleaseHandler = new Handler(thread.getLooper());
+        }
+        return mReleaseHandler;
+    }
+
+    /**
+     * 在调用线程清空监听,排队等待释放的播放器不会再回调到已经换了播放器的界面
+     */
+    static void clearListeners(MediaPlayer mediaPlayer) {
+        mediaPlayer.setOnPreparedListener(null);
+        mediaPlayer.setOnVideoSizeChangedListener(null);
+        mediaPlayer.setOnCompletionListener(null);
+        mediaPlayer.setOnErrorListener(null);
+        mediaPlayer.setOnInfoListener(null);
+        mediaPlayer.setOnBufferingUpdateListener(null);
+        mediaPlayer.setOnSeekCompleteListener(null);
+    }
+
+    private final class Command implements Runnable {
+
+        private final String mName;
+        private final Runnable mCommand;
+        private final long mPostTime = SystemClock.uptimeMillis();
+
+        Command(String name, Runnable command) {
+            this.mName = name;
+            this.mCommand = command;
+        }
+
+        @Override
+        public void run() {
+            long startTime = SystemClock.uptimeMillis();
+            Runnable watchdog = new Runnable() {
+                @Override
+                public void run() {
+                    Log.w(TAG, "Command " + mName + " has blocked the player thread for " + WATCHDOG_MILLIS + "ms");
+                }
+            };
+            mMainHandler.postDelayed(watchdog, WATCHDOG_MILLIS);
+            try {
+                mCommand.run();
+            } catch (RuntimeException e) {
+                //播放器状态不对时会抛IllegalStateException,不能让它结束播放器线程
+                Log.e(TAG, "Error executing command " + mName, e);
+            } finally {
+                mMainHandler.removeCallbacks(watchdog);
+                long runMillis = SystemClock.uptimeMillis() - startTime;
+                long waitMillis = startTime - mPostTime;
+                if (runMillis >= SLOW_COMMAND_MILLIS) {
+                    Log.w(TAG, "Command " + mName + " took " + runMillis + "ms, waited " + waitMillis + "ms");
+                }
+                CommandListener listener = mCommandListener;
+                if (listener != null) {
+                    listener.onCommandExecuted(mName, waitMillis, runMillis);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.infinite.simpleplayer;
+
+import android.net.Uri;
+
+/**
+ * 播放列表切换视频的回调,见{@link UniversalVideoView#setPlaylistItemChangeListener}
+ */
+public interface PlaylistItemChangeListener {
+
+    /**
+     * 播放列表切换到第index个视频
+     */
+    void onPlaylistItemChanged(int index, Uri uri);
+}
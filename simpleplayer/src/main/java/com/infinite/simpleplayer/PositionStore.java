@@ -0,0 +1,381 @@
+package com.infinite.simpleplayer;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 按视频地址保存播放位置,进程被杀后再打开同一个视频可以接着看.
+ * <p>
+ * 内存里是地址的64位哈希到位置的开放寻址表,几万条也只占几百KB,查找是O(1).
+ * 文件只追加固定12字节的记录(哈希+位置),写入先攒在内存里,由后台线程批量写,
+ * 失效的记录太多时在后台线程重写整个文件.位置为0的记录表示删除,比如已经看完.
+ * <p>
+ * 文件在后台线程加载,加载完之前查询返回0.应用内共用{@link #getInstance(Context)}.
+ */
+public class PositionStore {
+
+    private static final String TAG = "PositionStore";
+    private static final String FILE_NAME = "simpleplayer_positions";
+    private static final int RECORD_SIZE = 12;  //8字节哈希 + 4字节位置
+    private static final long FLUSH_DELAY_MILLIS = 3000;  //攒这么久再写一次
+    private static final int MAX_PENDING = 256;  //攒够这么多条立即写
+    private static final int MIN_COMPACT_RECORDS = 1024;  //文件里的记录超过这个数且超过有效条数两倍时重写
+
+    private static PositionStore sInstance;
+
+    private final File mFile;
+    private final Handler mHandler;
+    private final LongIntMap mPositions = new LongIntMap();  //加锁访问
+    private ByteBuffer mPending = ByteBuffer.allocate(MAX_PENDING * RECORD_SIZE);  //还没写入文件的记录,加锁访问
+    private long mFileRecords;  //只在后台线程使用
+    private boolean mLoaded;  //文件加载完了,加锁访问
+
+    public static synchronized PositionStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PositionStore(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    PositionStore(File file) {
+        this.mFile = file;
+        HandlerThread thread = new HandlerThread("Position store", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * @return 保存的位置,没有保存过或者还没加载完时返回0
+     */
+    public synchronized int get(Uri uri) {
+        return get(hash(uri));
+    }
+
+    synchronized int get(long key) {
+        return mPositions.get(key);
+    }
+
+    /**
+     * 记录位置,不会马上写入文件
+     *
+     * @param positionMillis 0表示删除
+     */
+    public void put(Uri uri, int positionMillis) {
+        put(hash(uri), positionMillis);
+    }
+
+    void put(long key, int positionMillis) {
+        boolean flushNow;
+        synchronized (this) {
+            if (mLoaded && mPositions.get(key) == positionMillis) {
+                return;  //加载完之前表里没有文件里的位置,删除必须留下记录,否则加载后旧位置又回来了
+            }
+            mPositions.put(key, positionMillis);
+            if (!mPending.hasRemaining()) {
+                mPending = grow(mPending);  //后台线程还没来得及写
+            }
+            mPending.putLong(key).putInt(positionMillis);
+            flushNow = mPending.position() >= MAX_PENDING * RECORD_SIZE;
+        }
+        mHandler.removeCallbacks(mFlushRunnable);
+        if (flushNow) {
+            mHandler.post(mFlushRunnable);
+        } else {
+            mHandler.postDelayed(mFlushRunnable, FLUSH_DELAY_MILLIS);
+        }
+    }
+
+    public void remove(Uri uri) {
+        put(uri, 0);
+    }
+
+    /**
+     * 马上在后台线程写入文件,比如Activity进入后台时
+     */
+    public void flush() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        mHandler.post(mFlushRunnable);
+    }
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            byte[] records;
+            int liveCount;
+            synchronized (PositionStore.this) {
+                if (mPending.position() == 0) {
+                    return;
+                }
+                records = Arrays.copyOf(mPending.array(), mPending.position());
+                mPending.clear();
+                liveCount = mPositions.liveCount();
+            }
+            append(records);
+            if (mFileRecords > MIN_COMPACT_RECORDS && mFileRecords > 2L * liveCount) {
+                compact();
+            }
+        }
+    };
+
+    void load() {
+        LongIntMap loaded = new LongIntMap();
+        long records = 0;
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            while (true) {
+                long key = input.readLong();
+                int position = input.readInt();
+                loaded.put(key, position);
+                records++;
+            }
+        } catch (EOFException e) {
+            //读完了,末尾不完整的记录直接丢掉
+        } catch (IOException e) {
+            if (mFile.exists()) {
+                Log.w(TAG, "Error loading " + mFile, e);
+            }
+        } finally {
+            close(input);
+        }
+        mFileRecords = records;
+        synchronized (this) {
+            //加载期间记录的位置更新,以内存里的为准
+            mPositions.putAllAbsent(loaded);
+            mPositions.dropTombstones();
+            mLoaded = true;
+        }
+        Log.d(TAG, "Loaded " + loaded.liveCount() + " positions from " + records + " records");
+    }
+
+    private void append(byte[] records) {
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(mFile, true);
+            output.write(records);
+            mFileRecords += records.length / RECORD_SIZE;
+        } catch (IOException e) {
+            Log.w(TAG, "Error writing " + mFile, e);
+        } finally {
+            close(output);
+        }
+    }
+
+    /**
+     * 只保留有效的记录,先写临时文件再替换
+     */
+    private void compact() {
+        byte[] records;
+        synchronized (this) {
+            records = mPositions.toRecords();
+        }
+        File temp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(temp);
+            output.write(records);
+            output.getFD().sync();
+        } catch (IOException e) {
+            Log.w(TAG, "Error compacting " + mFile, e);
+            return;
+        } finally {
+            close(output);
+        }
+        if (temp.renameTo(mFile)) {
+            Log.d(TAG, "Compacted " + mFileRecords + " records to " + records.length / RECORD_SIZE);
+            mFileRecords = records.length / RECORD_SIZE;
+        } else {
+            Log.w(TAG, "Error renaming " + temp);
+            temp.delete();
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer) {
+        ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing " + closeable, e);
+            }
+        }
+    }
+
+    /**
+     * 64位FNV-1a,几万个地址里碰撞的概率可以忽略
+     */
+    private static long hash(Uri uri) {
+        String string = uri.toString();
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < string.length(); i++) {
+            hash ^= string.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;  //0表示空位
+    }
+
+    /**
+     * long到int的开放寻址哈希表,不装箱.值为0的条目算删除,写文件时跳过.
+     * {@link #dropTombstones()}之前删除只把值置0,之后直接移除,表不会因为删除越来越满
+     */
+    static final class LongIntMap {
+
+        private long[] mKeys = new long[64];
+        private int[] mValues = new int[64];
+        private int mSize;  //占用的位置,包括值为0的条目
+        private boolean mKeepTombstones = true;
+
+        int get(long key) {
+            int mask = mKeys.length - 1;
+            for (int i = mix(key) & mask; mKeys[i] != 0; i = (i + 1) & mask) {
+                if (mKeys[i] == key) {
+                    return mValues[i];
+                }
+            }
+            return 0;
+        }
+
+        void put(long key, int value) {
+            if (value == 0 && !mKeepTombstones) {
+                remove(key);
+            } else {
+                putInternal(key, value, true);
+            }
+        }
+
+        /**
+         * 文件加载完了,不再需要值为0的条目盖住文件里的旧位置:重建表清掉它们,之后的删除直接移除
+         */
+        void dropTombstones() {
+            mKeepTombstones = false;
+            int live = liveCount();
+            int capacity = 64;
+            while (live * 2 > capacity) {
+                capacity *= 2;  //清理后最多半满
+            }
+            rehash(capacity);
+        }
+
+        int capacity() {
+            return mKeys.length;
+        }
+
+        void putAllAbsent(LongIntMap other) {
+            for (int i = 0; i < other.mKeys.length; i++) {
+                if (other.mKeys[i] != 0 && other.mValues[i] != 0) {
+                    putInternal(other.mKeys[i], other.mValues[i], false);
+                }
+            }
+        }
+
+        int liveCount() {
+            int count = 0;
+            for (int i = 0; i < mKeys.length; i++) {
+                if (mKeys[i] != 0 && mValues[i] != 0) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        byte[] toRecords() {
+            ByteBuffer buffer = ByteBuffer.allocate(liveCount() * RECORD_SIZE);
+            for (int i = 0; i < mKeys.length; i++) {
+                if (mKeys[i] != 0 && mValues[i] != 0) {
+                    buffer.putLong(mKeys[i]).putInt(mValues[i]);
+                }
+            }
+            return buffer.array();
+        }
+
+        private void putInternal(long key, int value, boolean replace) {
+            int mask = mKeys.length - 1;
+            int i = mix(key) & mask;
+            for (; mKeys[i] != 0; i = (i + 1) & mask) {
+                if (mKeys[i] == key) {
+                    if (replace) {
+                        mValues[i] = value;
+                    }
+                    return;
+                }
+            }
+            mKeys[i] = key;
+            mValues[i] = value;
+            if (++mSize * 4 > mKeys.length * 3) {
+                rehash(mKeys.length * 2);
+            }
+        }
+
+        /**
+         * 线性探测的删除:把后面本该排在更前面的条目依次挪过来,不留空洞也不留墓碑
+         */
+        private void remove(long key) {
+            int mask = mKeys.length - 1;
+            int i = mix(key) & mask;
+            for (; mKeys[i] != key; i = (i + 1) & mask) {
+                if (mKeys[i] == 0) {
+                    return;
+                }
+            }
+            for (int j = (i + 1) & mask; mKeys[j] != 0; j = (j + 1) & mask) {
+                int home = mix(mKeys[j]) & mask;
+                boolean stays = i < j ? home > i && home <= j : home > i || home <= j;
+                if (!stays) {
+                    mKeys[i] = mKeys[j];
+                    mValues[i] = mValues[j];
+                    i = j;
+                }
+            }
+            mKeys[i] = 0;
+            mValues[i] = 0;
+            mSize--;
+        }
+
+        /**
+         * 扩容或者清理.加载完成前值为0的条目也保留,要能盖住文件里的旧位置
+         */
+        private void rehash(int capacity) {
+            long[] keys = mKeys;
+            int[] values = mValues;
+            mKeys = new long[capacity];
+            mValues = new int[capacity];
+            mSize = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0 && (values[i] != 0 || mKeepTombstones)) {
+                    putInternal(keys[i], values[i], true);
+                }
+            }
+        }
+
+        private static int mix(long key) {
+            return (int) (key ^ (key >>> 32)) * 0x9e3779b9;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.infinite.simpleplayer;
+
+import android.os.Build;
+import android.os.SystemClock;
+
+/**
+ * 单次播放的卡顿统计:起播耗时、卡顿次数和时长、卡顿率,以及拖动进度引起的缓冲.
+ * <p>
+ * 首帧之前的缓冲算在起播耗时里;拖动还没完成或者完成后{@link #SEEK_STALL_WINDOW_MILLIS}内开始的缓冲算拖动引起的,
+ * 不算卡顿.每次setVideoURI重新统计,随时可以查询,正在进行的卡顿和播放也会算进去.只在主线程使用.
+ */
+public class QoeTracker {
+
+    private static final long SEEK_STALL_WINDOW_MILLIS = 1000;
+
+    private final Histogram mRebufferHistogram = new Histogram();
+    private final Histogram mSeekStallHistogram = new Histogram();
+    private long mOpenTime;
+    private long mJoinMillis = -1;
+    private boolean mFirstFrameRendered;
+    private long mPlayStartTime;  //正在播放时为开始时间,否则为0
+    private long mPlayMillis;
+    private long mStallStartTime;  //正在缓冲时为开始时间,否则为0
+    private boolean mSeekStall;
+    private boolean mSeeking;
+    private long mLastSeekTime;
+
+    QoeTracker() {
+        reset();
+    }
+
+    /**
+     * 开始新的视频,清空统计
+     */
+    void reset() {
+        mRebufferHistogram.reset();
+        mSeekStallHistogram.reset();
+        mOpenTime = SystemClock.elapsedRealtime();
+        mJoinMillis = -1;
+        mFirstFrameRendered = false;
+        mPlayStartTime = 0;
+        mPlayMillis = 0;
+        mStallStartTime = 0;
+        mSeekStall = false;
+        mSeeking = false;
+        mLastSeekTime = 0;
+    }
+
+    void onPlaying() {
+        long now = SystemClock.elapsedRealtime();
+        if (mJoinMillis < 0 && !hasFirstFrameCallback()) {
+            mJoinMillis = now - mOpenTime;  //API 17以下没有首帧回调,按开始播放算
+        }
+        if (mPlayStartTime == 0) {
+            mPlayStartTime = now;
+        }
+    }
+
+    /**
+     * 暂停、播放完成、出错或者停止
+     */
+    void onStopped() {
+        long now = SystemClock.elapsedRealtime();
+        if (mPlayStartTime != 0) {
+            mPlayMillis += now - mPlayStartTime;
+            mPlayStartTime = 0;
+        }
+        onBufferingEnd();
+    }
+
+    void onFirstFrame() {
+        if (!mFirstFrameRendered) {
+            mFirstFrameRendered = true;
+            mJoinMillis = SystemClock.elapsedRealtime() - mOpenTime;
+        }
+    }
+
+    void onSeek() {
+        mSeeking = true;
+        mLastSeekTime = SystemClock.elapsedRealtime();
+    }
+
+    void onSeekComplete() {
+        mSeeking = false;
+        mLastSeekTime = SystemClock.elapsedRealtime();
+    }
+
+    void onBufferingStart() {
+        boolean joined = hasFirstFrameCallback() ? mFirstFrameRendered : mJoinMillis >= 0;
+        if (!joined || mPlayStartTime == 0 || mStallStartTime != 0) {
+            return;  //首帧之前的缓冲算在起播耗时里,暂停时的缓冲不算卡顿
+        }
+        mStallStartTime = SystemClock.elapsedRealtime();
+        mSeekStall = mSeeking
+                || (mLastSeekTime != 0 && mStallStartTime - mLastSeekTime <= SEEK_STALL_WINDOW_MILLIS);
+    }
+
+    void onBufferingEnd() {
+        if (mStallStartTime == 0) {
+            return;
+        }
+        long stallMillis = SystemClock.elapsedRealtime() - mStallStartTime;
+        mStallStartTime = 0;
+        if (mSeekStall) {
+            mSeekStallHistogram.record(stallMillis);
+        } else {
+            mRebufferHistogram.record(stallMillis);
+        }
+    }
+
+    /**
+     * @return 从setVideoURI到首帧的时间,还没起播时返回-1
+     */
+    public long getJoinMillis() {
+        return mJoinMillis;
+    }
+
+    public int getRebufferCount() {
+        return (int) mRebufferHistogram.getCount() + (isRebuffering() ? 1 : 0);
+    }
+
+    public long getRebufferMillis() {
+        return mRebufferHistogram.getTotal() + (isRebuffering() ? currentStallMillis() : 0);
+    }
+
+    public int getSeekStallCount() {
+        return (int) mSeekStallHistogram.getCount() + (isSeekStalling() ? 1 : 0);
+    }
+
+    public long getSeekStallMillis() {
+        return mSeekStallHistogram.getTotal() + (isSeekStalling() ? currentStallMillis() : 0);
+    }
+
+    /**
+     * @return 起播之后实际播放的时间,不包括卡顿
+     */
+    public long getPlayMillis() {
+        long playMillis = mPlayMillis;
+        if (mPlayStartTime != 0) {
+            playMillis += SystemClock.elapsedRealtime() - mPlayStartTime;
+        }
+        return Math.max(0, playMillis - getRebufferMillis() - getSeekStallMillis());
+    }
+
+    /**
+     * @return 卡顿时间占(播放时间 + 卡顿时间)的比例
+     */
+    public float getRebufferRatio() {
+        long rebufferMillis = getRebufferMillis();
+        long total = getPlayMillis() + rebufferMillis;
+        return total == 0 ? 0 : (float) rebufferMillis / total;
+    }
+
+    /**
+     * 已经结束的卡顿的时长分布
+     */
+    public Histogram getRebufferHistogram() {
+        return mRebufferHistogram;
+    }
+
+    public Histogram getSeekStallHistogram() {
+        return mSeekStallHistogram;
+    }
+
+    private static boolean hasFirstFrameCallback() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1;  //MEDIA_INFO_VIDEO_RENDERING_START
+    }
+
+    private boolean isRebuffering() {
+        return mStallStartTime != 0 && !mSeekStall;
+    }
+
+    private boolean isSeekStalling() {
+        return mStallStartTime != 0 && mSeekStall;
+    }
+
+    private long currentStallMillis() {
+        return SystemClock.elapsedRealtime() - mStallStartTime;
+    }
+
+    @Override
+    public String toString() {
+        return "QoeTracker{" +
+                "join=" + mJoinMillis +
+                ", rebufferCount=" + getRebufferCount() +
+                ", rebufferMillis=" + getRebufferMillis() +
+                ", rebufferRatio=" + getRebufferRatio() +
+                ", seekStallCount=" + getSeekStallCount() +
+                ", seekStallMillis=" + getSeekStallMillis() +
+                ", playMillis=" + getPlayMillis() +
+                '}';
+    }
+}
@@ -0,0 +1,176 @@
+package com.infinite.simpleplayer;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.Choreographer;
+
+/**
+ * 渲染统计,用来在真机上比较{@link UniversalVideoView#RENDER_MODE_SURFACE}和{@link UniversalVideoView#RENDER_MODE_TEXTURE}:
+ * Surface被销毁后重新打开视频的次数、Surface回来时直接接上的次数、播放期间界面掉的帧,
+ * 以及TextureView模式下实际显示的视频帧数.
+ * <p>
+ * 界面掉帧要每帧唤醒主线程,默认不统计,需要时用{@link #setFrameMonitorEnabled(boolean)}打开.
+ * 只在主线程使用
+ */
+public class RenderStats {
+
+    private static final long FRAME_INTERVAL_NANOS = 1000000000L / 60;  //按60Hz计算掉帧
+
+    private final int mRenderMode;
+    private int mSurfaceCreatedCount;
+    private int mReopenCount;
+    private int mReattachCount;
+    private long mUiFrameCount;
+    private long mDroppedUiFrames;
+    private long mVideoFrameCount;
+    private boolean mFrameMonitorEnabled;
+    private boolean mMonitoring;
+    private long mLastFrameNanos;
+    private Object mFrameCallback;  //Choreographer.FrameCallback,API 16
+
+    RenderStats(int renderMode) {
+        this.mRenderMode = renderMode;
+    }
+
+    public int getRenderMode() {
+        return mRenderMode;
+    }
+
+    /**
+     * @return Surface创建的次数,包括第一次
+     */
+    public int getSurfaceCreatedCount() {
+        return mSurfaceCreatedCount;
+    }
+
+    /**
+     * @return 同一个视频因为Surface重建而重新打开的次数
+     */
+    public int getReopenCount() {
+        return mReopenCount;
+    }
+
+    /**
+     * @return Surface回来时直接接上的次数:TextureView模式接上保留的SurfaceTexture,
+     * 或者开启了{@link UniversalVideoView#setSurfaceRetention}时接上保留的播放器
+     */
+    public int getReattachCount() {
+        return mReattachCount;
+    }
+
+    /**
+     * @return 统计期间主线程的帧数
+     */
+    public long getUiFrameCount() {
+        return mUiFrameCount;
+    }
+
+    /**
+     * @return 统计期间主线程掉的帧数
+     */
+    public long getDroppedUiFrames() {
+        return mDroppedUiFrames;
+    }
+
+    /**
+     * @return 实际显示的视频帧数,SurfaceView模式拿不到,返回-1
+     */
+    public long getVideoFrameCount() {
+        return mRenderMode == UniversalVideoView.RENDER_MODE_TEXTURE ? mVideoFrameCount : -1;
+    }
+
+    /**
+     * 播放期间用Choreographer统计主线程掉帧,API 16以上有效
+     */
+    public void setFrameMonitorEnabled(boolean enabled) {
+        mFrameMonitorEnabled = enabled;
+        if (!enabled) {
+            stopFrameMonitor();
+        }
+    }
+
+    public void reset() {
+        mSurfaceCreatedCount = 0;
+        mReopenCount = 0;
+        mReattachCount = 0;
+        mUiFrameCount = 0;
+        mDroppedUiFrames = 0;
+        mVideoFrameCount = 0;
+        mLastFrameNanos = 0;
+    }
+
+    void onSurfaceCreated() {
+        mSurfaceCreatedCount++;
+    }
+
+    void onReopen() {
+        mReopenCount++;
+    }
+
+    void onSurfaceReattached() {
+        mReattachCount++;
+    }
+
+    void onVideoFrameRendered() {
+        mVideoFrameCount++;
+    }
+
+    void startFrameMonitor() {
+        if (!mFrameMonitorEnabled || mMonitoring || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return;
+        }
+        mMonitoring = true;
+        mLastFrameNanos = 0;
+        postFrameCallback();
+    }
+
+    void stopFrameMonitor() {
+        if (!mMonitoring) {
+            return;
+        }
+        mMonitoring = false;
+        removeFrameCallback();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+        if (mFrameCallback == null) {
+            mFrameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    onFrame(frameTimeNanos);
+                    Choreographer.getInstance().postFrameCallback(this);
+                }
+            };
+        }
+        Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void removeFrameCallback() {
+        Choreographer.getInstance().removeFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+    }
+
+    private void onFrame(long frameTimeNanos) {
+        if (mLastFrameNanos != 0) {
+            long frames = (frameTimeNanos - mLastFrameNanos + FRAME_INTERVAL_NANOS / 2) / FRAME_INTERVAL_NANOS;
+            if (frames > 1) {
+                mDroppedUiFrames += frames - 1;
+            }
+        }
+        mUiFrameCount++;
+        mLastFrameNanos = frameTimeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderStats{mode=" + (mRenderMode == UniversalVideoView.RENDER_MODE_TEXTURE ? "texture" : "surface")
+                + ", surfaceCreated=" + mSurfaceCreatedCount
+                + ", reopen=" + mReopenCount
+                + ", reattach=" + mReattachCount
+                + ", uiFrames=" + mUiFrameCount
+                + ", droppedUiFrames=" + mDroppedUiFrames
+                + ", videoFrames=" + getVideoFrameCount()
+                + '}';
+    }
+}
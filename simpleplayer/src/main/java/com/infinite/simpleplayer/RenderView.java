@@ -0,0 +1,56 @@
+package com.infinite.simpleplayer;
+
+import android.graphics.Bitmap;
+import android.media.MediaPlayer;
+import android.view.View;
+
+/**
+ * 视频画面的输出目标,{@link UniversalVideoView}里放的是{@link SurfaceRenderView}或者{@link TextureRenderView}
+ */
+interface RenderView {
+
+    /**
+     * 都在主线程回调
+     */
+    interface Callback {
+
+        void onSurfaceCreated(RenderView renderView);
+
+        void onSurfaceChanged(RenderView renderView, int width, int height);
+
+        void onSurfaceDestroyed(RenderView renderView);
+    }
+
+    View getView();
+
+    void setCallback(Callback callback);
+
+    /**
+     * @return Surface是否可用,不可用时不能打开视频
+     */
+    boolean hasSurface();
+
+    /**
+     * @return Surface的大小是否已经可以显示这个大小的视频
+     */
+    boolean hasValidSize(int videoWidth, int videoHeight);
+
+    void setVideoSize(int videoWidth, int videoHeight);
+
+    /**
+     * 把播放器的画面输出到这里,在播放器线程调用
+     */
+    void bindTo(MediaPlayer mediaPlayer);
+
+    /**
+     * 在主线程读出当前显示的帧
+     *
+     * @return 读不到时返回null
+     */
+    Bitmap captureFrame(int maxWidth);
+
+    /**
+     * 不再需要画面时调用,View已经离开窗口的话释放保留的Surface
+     */
+    void releaseRetainedSurface();
+}
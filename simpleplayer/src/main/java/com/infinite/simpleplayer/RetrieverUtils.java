@@ -0,0 +1,30 @@
+package com.infinite.simpleplayer;
+
+import android.content.Context;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+
+import java.util.HashMap;
+
+/**
+ * MediaMetadataRetriever的工具方法,拖动预览和截帧共用
+ */
+final class RetrieverUtils {
+
+    private RetrieverUtils() {
+    }
+
+    /**
+     * 网络地址要用带headers的重载,setDataSource(Context, Uri)只支持本地文件和content://
+     *
+     * @throws RuntimeException 打不开时
+     */
+    static void setDataSource(MediaMetadataRetriever retriever, Context context, Uri uri) {
+        String scheme = uri.getScheme();
+        if ("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme)) {
+            retriever.setDataSource(uri.toString(), new HashMap<String, String>());
+        } else {
+            retriever.setDataSource(context, uri);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.infinite.simpleplayer;
+
+/**
+ * 支持拖动时实时定位的播放器另外实现这个接口,{@link SimplePlayerController}拖动进度条时优先调用;
+ * 只实现{@link MediaPlayerControl}的播放器拖动时用{@link MediaPlayerControl#seekTo(int)}
+ */
+public interface ScrubControl {
+
+    /**
+     * 拖动进度条时实时定位,可以不精确
+     */
+    void scrubTo(int pos);
+}
@@ -0,0 +1,14 @@
+package com.infinite.simpleplayer;
+
+import android.media.MediaPlayer;
+
+/**
+ * 拖动进度完成的回调,见{@link UniversalVideoView#setSeekCompleteListener}
+ */
+public interface SeekCompleteListener {
+
+    /**
+     * 拖动进度完成,耗时见{@link UniversalVideoView#getSeekTracker()}
+     */
+    void onSeekComplete(MediaPlayer mp);
+}
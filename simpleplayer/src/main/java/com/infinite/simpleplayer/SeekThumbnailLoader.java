@@ -0,0 +1,148 @@
+package com.infinite.simpleplayer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * 拖动进度条时的预览缩略图:在后台线程用MediaMetadataRetriever按固定间隔取关键帧,缩小后放进按内存大小限制的LRU缓存.
+ * <p>
+ * 每次请求除了目标位置,还会沿拖动方向预取后面几帧;只保留最新的请求,拖动太快时中间的位置直接跳过.
+ * 被淘汰的缩略图放进复用池,后面取帧时直接画到旧的Bitmap上,不用每次都分配.
+ * 取帧在后台线程,其他方法都只在主线程调用,结果也在主线程回调.
+ */
+public class SeekThumbnailLoader extends BaseThumbnailLoader<Long> {
+
+    private static final String TAG = "SeekThumbnailLoader";
+    private static final long DEFAULT_INTERVAL_MILLIS = 5000;  //相邻缩略图的间隔,拖动预览不需要逐帧
+    private static final int LOOKAHEAD = 3;  //沿拖动方向预取的数量
+    private static final int MAX_CACHE_BYTES = 8 * 1024 * 1024;
+
+    private final int mThumbnailWidth;
+    private final long mIntervalMillis;
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mDstRect = new Rect();
+    private volatile Uri mUri;
+
+    //以下只在后台线程使用
+    private MediaMetadataRetriever mRetriever;
+    private Uri mRetrieverUri;
+    private long mDurationMillis;
+    private boolean mRetrieverFailed;
+
+    /**
+     * @param thumbnailWidth 缩略图宽度,高度按视频比例
+     */
+    public SeekThumbnailLoader(Context context, int thumbnailWidth) {
+        this(context, thumbnailWidth, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    public SeekThumbnailLoader(Context context, int thumbnailWidth, long intervalMillis) {
+        super(context, "Seek thumbnail", LOOKAHEAD, MAX_CACHE_BYTES);
+        this.mThumbnailWidth = thumbnailWidth;
+        this.mIntervalMillis = intervalMillis;
+    }
+
+    @Override
+    public void setDataSource(Uri uri) {
+        if (uri != null && uri.equals(mUri)) {
+            return;
+        }
+        mUri = uri;
+        resetForNewSource();
+    }
+
+    @Override
+    protected Long keyOf(long positionMillis) {
+        if (mUri == null) {
+            return null;
+        }
+        return (positionMillis + mIntervalMillis / 2) / mIntervalMillis * mIntervalMillis;
+    }
+
+    @Override
+    protected Long neighbor(Long key, int step) {
+        long next = key + step * mIntervalMillis;
+        return next >= 0 ? next : null;
+    }
+
+    @Override
+    protected long positionOf(Long key) {
+        return key;
+    }
+
+    @Override
+    protected Bitmap load(Long key) {
+        Uri uri = mUri;
+        return uri != null ? loadThumbnail(uri, key) : null;
+    }
+
+    @Override
+    protected void onReleased() {
+        releaseRetriever();
+    }
+
+    /**
+     * 在后台线程取帧并缩小
+     */
+    private Bitmap loadThumbnail(Uri uri, long positionMillis) {
+        if (!uri.equals(mRetrieverUri)) {
+            openRetriever(uri);
+        }
+        if (mRetrieverFailed || (mDurationMillis > 0 && positionMillis > mDurationMillis)) {
+            return null;
+        }
+        Bitmap frame;
+        try {
+            frame = mRetriever.getFrameAtTime(positionMillis * 1000, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Error getting frame at " + positionMillis, e);
+            return null;
+        }
+        if (frame == null) {
+            return null;
+        }
+        try {
+            int height = Math.max(1, frame.getHeight() * mThumbnailWidth / Math.max(1, frame.getWidth()));
+            Bitmap thumbnail = takeReusable(mThumbnailWidth, height);
+            if (thumbnail == null) {
+                thumbnail = Bitmap.createBitmap(mThumbnailWidth, height, Bitmap.Config.RGB_565);
+            }
+            mDstRect.set(0, 0, mThumbnailWidth, height);
+            new Canvas(thumbnail).drawBitmap(frame, null, mDstRect, mPaint);
+            return thumbnail;
+        } finally {
+            frame.recycle();  //原始帧可能有几MB,不等GC
+        }
+    }
+
+    private void openRetriever(Uri uri) {
+        releaseRetriever();
+        mRetrieverUri = uri;
+        mRetriever = new MediaMetadataRetriever();
+        try {
+            RetrieverUtils.setDataSource(mRetriever, mContext, uri);
+            String duration = mRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            mDurationMillis = duration != null ? Long.parseLong(duration) : 0;
+        } catch (RuntimeException e) {
+            //同一个视频不再重试,换视频时再打开
+            Log.w(TAG, "Error opening " + uri, e);
+            mRetrieverFailed = true;
+        }
+    }
+
+    private void releaseRetriever() {
+        if (mRetriever != null) {
+            mRetriever.release();
+            mRetriever = null;
+        }
+        mRetrieverUri = null;
+        mDurationMillis = 0;
+        mRetrieverFailed = false;
+    }
+}
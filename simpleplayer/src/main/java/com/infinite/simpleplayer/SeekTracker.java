@@ -0,0 +1,92 @@
+package com.infinite.simpleplayer;
+
+import android.os.SystemClock;
+
+/**
+ * 拖动进度的耗时统计:从seekTo到onSeekComplete的时间,按向前/向后、目标位置是否已经缓冲分成四组.
+ * <p>
+ * 上一次seek还没完成又seek时,前一次被覆盖,只统计最后一次从发起到完成的时间.
+ * 换视频时不清空,需要时调用{@link #reset()}.只在主线程使用.
+ */
+public class SeekTracker {
+
+    private final Histogram mForwardCached = new Histogram();
+    private final Histogram mForwardUncached = new Histogram();
+    private final Histogram mBackwardCached = new Histogram();
+    private final Histogram mBackwardUncached = new Histogram();
+    private long mSeekStartTime;  //有未完成的seek时为发起时间,否则为0
+    private boolean mForward;
+    private boolean mCached;
+    private long mLastLatencyMillis = -1;
+
+    SeekTracker() {
+    }
+
+    /**
+     * @param forward 是否向后拖动
+     * @param cached  目标位置是否已经缓冲
+     */
+    void onSeekStarted(boolean forward, boolean cached) {
+        mSeekStartTime = SystemClock.elapsedRealtime();
+        mForward = forward;
+        mCached = cached;
+    }
+
+    /**
+     * @return 这次seek的耗时,不是{@link #onSeekStarted}发起的seek(比如恢复播放位置)返回-1
+     */
+    long onSeekComplete() {
+        if (mSeekStartTime == 0) {
+            return -1;
+        }
+        long latencyMillis = SystemClock.elapsedRealtime() - mSeekStartTime;
+        mSeekStartTime = 0;
+        getHistogram(mForward, mCached).record(latencyMillis);
+        mLastLatencyMillis = latencyMillis;
+        return latencyMillis;
+    }
+
+    /**
+     * 播放器被释放,未完成的seek不会再回调
+     */
+    void cancel() {
+        mSeekStartTime = 0;
+    }
+
+    public boolean isSeeking() {
+        return mSeekStartTime != 0;
+    }
+
+    /**
+     * @return 最近一次完成的seek的耗时,还没有时返回-1
+     */
+    public long getLastLatencyMillis() {
+        return mLastLatencyMillis;
+    }
+
+    public Histogram getHistogram(boolean forward, boolean cached) {
+        if (forward) {
+            return cached ? mForwardCached : mForwardUncached;
+        }
+        return cached ? mBackwardCached : mBackwardUncached;
+    }
+
+    public void reset() {
+        mForwardCached.reset();
+        mForwardUncached.reset();
+        mBackwardCached.reset();
+        mBackwardUncached.reset();
+        mSeekStartTime = 0;
+        mLastLatencyMillis = -1;
+    }
+
+    @Override
+    public String toString() {
+        return "SeekTracker{" +
+                "forwardCached=" + mForwardCached +
+                ", forwardUncached=" + mForwardUncached +
+                ", backwardCached=" + mBackwardCached +
+                ", backwardUncached=" + mBackwardUncached +
+                '}';
+    }
+}
@@ -19,6 +19,8 @@ package com.infinite.simpleplayer;
 
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.net.Uri;
 import android.os.Handler;
 import android.os.Message;
 import android.util.AttributeSet;
@@ -29,6 +31,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
 import android.widget.ImageButton;
+import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.SeekBar;
 import android.widget.SeekBar.OnSeekBarChangeListener;
@@ -45,6 +48,8 @@ public class SimplePlayerController extends FrameLayout {
     private boolean mIsShowing = true;
     private boolean mIsDragging;
     private boolean mIsScalable = false;
+    private boolean mLiveScrub = false;  //拖动进度条时实时定位
+    private boolean mSeekPreview = false;  //拖动进度条时显示预览缩略图
     private boolean mIsFullScreen = false;
 //    private boolean mFullscreenEnabled = false;
 
@@ -84,12 +89,20 @@ public class SimplePlayerController extends FrameLayout {
     private View mTitleLayout;
     private View mControlLayout;
     private View mCenterPlayButton;
+    private ImageView mIvPreview;  //拖动预览
+    private ThumbnailProvider mThumbnailProvider;  //第一次拖动时才创建
+    private Uri mPreviewUri;
+    private Uri mPreviewSpriteIndex;  //服务端生成的雪碧图索引,为空时在本地取帧
+    private int mLastPreviewProgress;
+    private final int[] mLocation = new int[2];
 
     public SimplePlayerController(Context context, AttributeSet attrs) {
         super(context, attrs);
         mContext = context;
         TypedArray a = mContext.obtainStyledAttributes(attrs, R.styleable.SimplePlayerController);
         mIsScalable = a.getBoolean(R.styleable.SimplePlayerController_scalable, false);
+        mLiveScrub = a.getBoolean(R.styleable.SimplePlayerController_liveScrub, false);
+        mSeekPreview = a.getBoolean(R.styleable.SimplePlayerController_seekPreview, false);
         a.recycle();
         init(context);
     }
@@ -117,6 +130,7 @@ public class SimplePlayerController extends FrameLayout {
         mBtScale = (ImageButton) v.findViewById(R.id.scale_button);
         mCenterPlayButton = v.findViewById(R.id.center_play_btn);
         mBtBack = v.findViewById(R.id.back_btn);
+        mIvPreview = (ImageView) v.findViewById(R.id.seek_preview);
 
         if (mBtSwitch != null) {
             mBtSwitch.requestFocus();
@@ -160,6 +174,47 @@ public class SimplePlayerController extends FrameLayout {
     }
 
 
+    /**
+     * 拖动进度条时画面跟着变化,拖动过程中的seek由播放器合并,松手时再精确定位
+     */
+    public void setLiveScrub(boolean liveScrub) {
+        mLiveScrub = liveScrub;
+    }
+
+    /**
+     * 拖动进度条时在滑块上方显示预览缩略图,需要播放器通过{@link #setPreviewSource}告诉当前视频
+     */
+    public void setSeekPreview(boolean seekPreview) {
+        mSeekPreview = seekPreview;
+        if (!seekPreview) {
+            hidePreview();
+        }
+    }
+
+    /**
+     * 换视频时由播放器调用,取消上一个视频还没取完的缩略图
+     */
+    public void setPreviewSource(Uri uri) {
+        setPreviewSource(uri, null);
+    }
+
+    /**
+     * @param spriteIndex 服务端生成的雪碧图索引,不为空时从雪碧图截取预览,不在本地取帧
+     */
+    public void setPreviewSource(Uri uri, Uri spriteIndex) {
+        boolean useSprites = spriteIndex != null;
+        if (mThumbnailProvider != null && (mThumbnailProvider instanceof SpriteThumbnailLoader) != useSprites) {
+            mThumbnailProvider.release();
+            mThumbnailProvider = null;
+        }
+        mPreviewUri = uri;
+        mPreviewSpriteIndex = spriteIndex;
+        if (mThumbnailProvider != null) {
+            mThumbnailProvider.setDataSource(useSprites ? spriteIndex : uri);
+        }
+        hidePreview();
+    }
+
     public void setMediaPlayer(MediaPlayerControl player) {
         mPlayerControl = player;
         updatePausePlay();
@@ -562,6 +617,7 @@ public class SimplePlayerController extends FrameLayout {
             show(3600000);
 
             mIsDragging = true;
+            mLastPreviewProgress = bar.getProgress();
             mHandler.removeMessages(SHOW_PROGRESS);
         }
 
@@ -576,6 +632,17 @@ public class SimplePlayerController extends FrameLayout {
             long newposition = (duration * progress) / 1000L;
             newPosition = (int) newposition;
             change = true;
+            updatePreview(bar, progress, newPosition);
+            if (mLiveScrub) {
+                if (mPlayerControl instanceof ScrubControl) {
+                    ((ScrubControl) mPlayerControl).scrubTo(newPosition);
+                } else {
+                    mPlayerControl.seekTo(newPosition);
+                }
+                if (mTvCurrentTime != null) {
+                    mTvCurrentTime.setText(stringForTime(newPosition));
+                }
+            }
         }
 
         public void onStopTrackingTouch(SeekBar bar) {
@@ -589,6 +656,7 @@ public class SimplePlayerController extends FrameLayout {
                 }
             }
             mIsDragging = false;
+            hidePreview();
             setProgress();
             updatePausePlay();
             show(sControlShowTime);
@@ -601,6 +669,75 @@ public class SimplePlayerController extends FrameLayout {
         }
     };
 
+    private void updatePreview(SeekBar bar, int progress, int position) {
+        if (!mSeekPreview || mIvPreview == null || (mPreviewUri == null && mPreviewSpriteIndex == null)) {
+            return;
+        }
+        boolean forward = progress >= mLastPreviewProgress;
+        mLastPreviewProgress = progress;
+        Bitmap bitmap = getThumbnailProvider().request(position, forward);
+        if (bitmap != null) {
+            showPreview(bitmap);
+        }
+        //预览图中心对准滑块
+        bar.getLocationInWindow(mLocation);
+        int barLeft = mLocation[0];
+        getLocationInWindow(mLocation);
+        int available = bar.getWidth() - bar.getPaddingLeft() - bar.getPaddingRight();
+        int thumbX = barLeft - mLocation[0] + bar.getPaddingLeft() + available * progress / Math.max(1, bar.getMax());
+        int x = Math.max(0, Math.min(thumbX - mIvPreview.getWidth() / 2, getWidth() - mIvPreview.getWidth()));
+        mIvPreview.setTranslationX(x);
+    }
+
+    private void showPreview(Bitmap bitmap) {
+        mIvPreview.setImageBitmap(bitmap);
+        if (mIvPreview.getVisibility() != VISIBLE) {
+            mIvPreview.setVisibility(VISIBLE);
+        }
+    }
+
+    private void hidePreview() {
+        if (mIvPreview != null) {
+            mIvPreview.setVisibility(GONE);
+        }
+        if (mThumbnailProvider != null) {
+            mThumbnailProvider.cancel();
+        }
+    }
+
+    private ThumbnailProvider getThumbnailProvider() {
+        if (mThumbnailProvider == null) {
+            if (mPreviewSpriteIndex != null) {
+                mThumbnailProvider = new SpriteThumbnailLoader(mContext);
+                mThumbnailProvider.setDataSource(mPreviewSpriteIndex);
+            } else {
+                mThumbnailProvider = new SeekThumbnailLoader(mContext,
+                        getResources().getDimensionPixelSize(R.dimen.uvv_seek_preview_width));
+                mThumbnailProvider.setDataSource(mPreviewUri);
+            }
+            mThumbnailProvider.setCallback(mThumbnailCallback);
+        }
+        return mThumbnailProvider;
+    }
+
+    private ThumbnailProvider.Callback mThumbnailCallback = new ThumbnailProvider.Callback() {
+        @Override
+        public void onThumbnailLoaded(long positionMillis, Bitmap bitmap) {
+            if (mIsDragging && mSeekPreview && mIvPreview != null) {
+                showPreview(bitmap);
+            }
+        }
+    };
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (mThumbnailProvider != null) {
+            mThumbnailProvider.release();  //后台线程跟着界面走,重新显示时再创建
+            mThumbnailProvider = null;
+        }
+    }
+
     @Override
     public void setEnabled(boolean enabled) {
 //        super.setEnabled(enabled);
@@ -0,0 +1,139 @@
+package com.infinite.simpleplayer;
+
+import android.graphics.Rect;
+import android.net.Uri;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 服务端生成的雪碧图索引,WebVTT格式:每个cue的内容是雪碧图地址加#xywh=x,y,w,h,地址可以是相对索引文件的路径
+ * <pre>
+ * WEBVTT
+ *
+ * 00:00:00.000 --> 00:00:05.000
+ * sprite_0.jpg#xywh=0,0,160,90
+ * </pre>
+ */
+final class SpriteIndex {
+
+    private static final String ARROW = "-->";
+    private static final String XYWH = "#xywh=";
+
+    static final class Tile {
+
+        final long mStartMillis;
+        final Uri mSheetUri;
+        final Rect mRect;  //为空时是整张图
+
+        Tile(long startMillis, Uri sheetUri, Rect rect) {
+            this.mStartMillis = startMillis;
+            this.mSheetUri = sheetUri;
+            this.mRect = rect;
+        }
+    }
+
+    private final List<Tile> mTiles;
+
+    private SpriteIndex(List<Tile> tiles) {
+        this.mTiles = tiles;
+    }
+
+    /**
+     * @param baseUri 索引文件的地址,用来解析相对路径
+     */
+    static SpriteIndex parse(BufferedReader reader, Uri baseUri) throws IOException {
+        List<Tile> tiles = new ArrayList<>();
+        long startMillis = -1;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            int arrow = line.indexOf(ARROW);
+            if (arrow > 0) {
+                startMillis = parseTime(line.substring(0, arrow).trim());
+            } else if (startMillis >= 0 && line.length() > 0) {
+                tiles.add(parseTile(startMillis, line, baseUri));
+                startMillis = -1;
+            }
+        }
+        Collections.sort(tiles, new Comparator<Tile>() {
+            @Override
+            public int compare(Tile lhs, Tile rhs) {
+                return lhs.mStartMillis < rhs.mStartMillis ? -1 : (lhs.mStartMillis == rhs.mStartMillis ? 0 : 1);
+            }
+        });
+        return new SpriteIndex(tiles);
+    }
+
+    /**
+     * hh:mm:ss.mmm或者mm:ss.mmm
+     */
+    private static long parseTime(String time) throws IOException {
+        try {
+            String[] parts = time.split(":");
+            long millis = Math.round(Double.parseDouble(parts[parts.length - 1]) * 1000);
+            long multiplier = 60 * 1000;
+            for (int i = parts.length - 2; i >= 0; i--) {
+                millis += Long.parseLong(parts[i]) * multiplier;
+                multiplier *= 60;
+            }
+            return millis;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid cue time " + time, e);
+        }
+    }
+
+    private static Tile parseTile(long startMillis, String payload, Uri baseUri) throws IOException {
+        String sheet = payload;
+        Rect rect = null;
+        int hash = payload.indexOf(XYWH);
+        if (hash >= 0) {
+            sheet = payload.substring(0, hash);
+            String[] xywh = payload.substring(hash + XYWH.length()).split(",");
+            try {
+                int x = Integer.parseInt(xywh[0].trim());
+                int y = Integer.parseInt(xywh[1].trim());
+                rect = new Rect(x, y, x + Integer.parseInt(xywh[2].trim()), y + Integer.parseInt(xywh[3].trim()));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Invalid tile " + payload, e);
+            }
+        }
+        try {
+            return new Tile(startMillis, Uri.parse(URI.create(baseUri.toString()).resolve(sheet).toString()), rect);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid sprite sheet " + sheet, e);
+        }
+    }
+
+    int size() {
+        return mTiles.size();
+    }
+
+    Tile get(int index) {
+        return mTiles.get(index);
+    }
+
+    /**
+     * @return 包含position的tile,在第一个之前时返回-1
+     */
+    int indexOf(long positionMillis) {
+        int low = 0;
+        int high = mTiles.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mTiles.get(mid).mStartMillis <= positionMillis) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+}
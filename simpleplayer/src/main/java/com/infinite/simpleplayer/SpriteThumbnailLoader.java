@@ -0,0 +1,239 @@
+package com.infinite.simpleplayer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 从服务端生成的雪碧图截取拖动预览,适合长视频,不用在本地取帧.
+ * <p>
+ * 数据源是{@link SpriteIndex}格式的索引文件.雪碧图只保留压缩后的数据,
+ * 用BitmapRegionDecoder只解码需要的那一格,API 16以上直接解码到复用的Bitmap里,内存里不会有整张雪碧图.
+ * 解出来的小图放进按内存大小限制的LRU缓存,沿拖动方向预取,只保留最新的请求.
+ */
+public class SpriteThumbnailLoader extends BaseThumbnailLoader<Integer> {
+
+    private static final String TAG = "SpriteThumbnailLoader";
+    private static final int LOOKAHEAD = 2;  //沿拖动方向预取的格数
+    private static final int MAX_DECODERS = 2;  //同时打开的雪碧图数量
+    private static final int MAX_CACHE_BYTES = 4 * 1024 * 1024;
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 15000;
+
+    private volatile Uri mUri;
+    private volatile SpriteIndex mIndex;  //索引还没加载完时为空
+    private long mWaitingPosition = -1;  //索引加载完之前的请求,加载完后补上
+    private boolean mWaitingForward;
+
+    //以下只在后台线程使用
+    private final LinkedHashMap<Uri, BitmapRegionDecoder> mDecoders = new LinkedHashMap<>(MAX_DECODERS, 0.75f, true);
+    private final Set<Uri> mFailedSheets = new HashSet<>();
+    private final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+
+    public SpriteThumbnailLoader(Context context) {
+        super(context, "Sprite thumbnail", LOOKAHEAD, MAX_CACHE_BYTES);
+        mOptions.inPreferredConfig = Bitmap.Config.RGB_565;
+        mOptions.inMutable = true;  //inBitmap要求可变
+    }
+
+    /**
+     * @param uri 雪碧图索引文件的地址
+     */
+    @Override
+    public void setDataSource(final Uri uri) {
+        if (uri != null && uri.equals(mUri)) {
+            return;
+        }
+        mUri = uri;
+        mIndex = null;
+        final int generation = resetForNewSource();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                closeDecoders();
+                if (uri != null) {
+                    loadIndex(generation, uri);
+                }
+            }
+        });
+    }
+
+    @Override
+    public Bitmap request(long positionMillis, boolean forward) {
+        if (mIndex == null) {
+            mWaitingPosition = positionMillis;
+            mWaitingForward = forward;
+            return null;
+        }
+        return super.request(positionMillis, forward);
+    }
+
+    @Override
+    public void cancel() {
+        super.cancel();
+        mWaitingPosition = -1;
+    }
+
+    @Override
+    protected Integer keyOf(long positionMillis) {
+        int tile = mIndex.indexOf(positionMillis);
+        return tile >= 0 ? tile : null;
+    }
+
+    @Override
+    protected Integer neighbor(Integer tile, int step) {
+        int next = tile + step;
+        return next >= 0 && next < mIndex.size() ? next : null;
+    }
+
+    @Override
+    protected long positionOf(Integer tile) {
+        return mIndex.get(tile).mStartMillis;
+    }
+
+    @Override
+    protected Bitmap load(Integer tile) {
+        SpriteIndex index = mIndex;
+        if (index == null || tile >= index.size()) {
+            return null;
+        }
+        return decodeTile(index.get(tile));
+    }
+
+    private void loadIndex(final int generation, Uri uri) {
+        InputStream inputStream = null;
+        final SpriteIndex index;
+        try {
+            inputStream = openStream(uri);
+            index = SpriteIndex.parse(new BufferedReader(new InputStreamReader(inputStream, "UTF-8")), uri);
+        } catch (IOException e) {
+            Log.w(TAG, "Error loading sprite index " + uri, e);
+            return;
+        } finally {
+            close(inputStream);
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!isCurrentGeneration(generation)) {
+                    return;
+                }
+                mIndex = index;
+                if (mWaitingPosition >= 0) {
+                    long position = mWaitingPosition;
+                    mWaitingPosition = -1;
+                    Bitmap bitmap = request(position, mWaitingForward);
+                    if (bitmap != null && getCallback() != null) {
+                        getCallback().onThumbnailLoaded(position, bitmap);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 在后台线程只解码雪碧图里的一格
+     */
+    private Bitmap decodeTile(SpriteIndex.Tile tile) {
+        BitmapRegionDecoder decoder = getDecoder(tile.mSheetUri);
+        if (decoder == null) {
+            return null;
+        }
+        Rect rect = tile.mRect != null ? tile.mRect : new Rect(0, 0, decoder.getWidth(), decoder.getHeight());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            mOptions.inBitmap = takeReusable(rect.width(), rect.height());
+        }
+        try {
+            return decoder.decodeRegion(rect, mOptions);
+        } catch (IllegalArgumentException e) {
+            if (mOptions.inBitmap == null) {
+                Log.w(TAG, "Error decoding tile " + rect + " of " + tile.mSheetUri, e);
+                return null;
+            }
+            //复用的Bitmap不合适,重新分配
+            mOptions.inBitmap = null;
+            return decoder.decodeRegion(rect, mOptions);
+        } finally {
+            mOptions.inBitmap = null;
+        }
+    }
+
+    private BitmapRegionDecoder getDecoder(Uri sheetUri) {
+        BitmapRegionDecoder decoder = mDecoders.get(sheetUri);
+        if (decoder != null || mFailedSheets.contains(sheetUri)) {
+            return decoder;
+        }
+        InputStream inputStream = null;
+        try {
+            inputStream = openStream(sheetUri);
+            decoder = BitmapRegionDecoder.newInstance(inputStream, false);
+        } catch (IOException e) {
+            Log.w(TAG, "Error opening sprite sheet " + sheetUri, e);
+        } finally {
+            close(inputStream);
+        }
+        if (decoder == null) {
+            mFailedSheets.add(sheetUri);
+            return null;
+        }
+        mDecoders.put(sheetUri, decoder);
+        Iterator<Map.Entry<Uri, BitmapRegionDecoder>> iterator = mDecoders.entrySet().iterator();
+        while (mDecoders.size() > MAX_DECODERS && iterator.hasNext()) {
+            BitmapRegionDecoder eldest = iterator.next().getValue();
+            iterator.remove();
+            eldest.recycle();
+        }
+        return decoder;
+    }
+
+    private void closeDecoders() {
+        for (BitmapRegionDecoder decoder : mDecoders.values()) {
+            decoder.recycle();
+        }
+        mDecoders.clear();
+        mFailedSheets.clear();
+    }
+
+    private InputStream openStream(Uri uri) throws IOException {
+        String scheme = uri.getScheme();
+        if ("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme)) {
+            HttpURLConnection connection = (HttpURLConnection) new URL(uri.toString()).openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            return connection.getInputStream();
+        }
+        InputStream inputStream = mContext.getContentResolver().openInputStream(uri);
+        if (inputStream == null) {
+            throw new IOException("Can't open " + uri);
+        }
+        return inputStream;
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing " + closeable, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.infinite.simpleplayer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.media.MediaPlayer;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.View;
+
+/**
+ * SurfaceView输出:画面直接交给系统合成,最省电也最不容易掉帧,
+ * 但是View离开窗口时Surface一定会被销毁,回来后只能重新打开视频
+ */
+final class SurfaceRenderView extends SurfaceView implements RenderView {
+
+    private Callback mCallback;
+    private boolean mHasSurface;
+    private int mSurfaceWidth;
+    private int mSurfaceHeight;
+
+    SurfaceRenderView(Context context) {
+        super(context);
+        getHolder().addCallback(mSHCallback);
+        getHolder().setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
+    }
+
+    @Override
+    public View getView() {
+        return this;
+    }
+
+    @Override
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    @Override
+    public boolean hasSurface() {
+        return mHasSurface;
+    }
+
+    /**
+     * Surface用setFixedSize固定成视频大小,surfaceChanged回调了同样的大小才算准备好
+     */
+    @Override
+    public boolean hasValidSize(int videoWidth, int videoHeight) {
+        return mSurfaceWidth == videoWidth && mSurfaceHeight == videoHeight;
+    }
+
+    @Override
+    public void setVideoSize(int videoWidth, int videoHeight) {
+        getHolder().setFixedSize(videoWidth, videoHeight);
+    }
+
+    @Override
+    public void bindTo(MediaPlayer mediaPlayer) {
+        mediaPlayer.setDisplay(getHolder());
+        mediaPlayer.setScreenOnWhilePlaying(true);
+    }
+
+    @Override
+    public Bitmap captureFrame(int maxWidth) {
+        return null;  //SurfaceView的内容不经过View绘制,读不到
+    }
+
+    @Override
+    public void releaseRetainedSurface() {
+        //SurfaceView不保留Surface
+    }
+
+    private SurfaceHolder.Callback mSHCallback = new SurfaceHolder.Callback() {
+        public void surfaceChanged(SurfaceHolder holder, int format, int w, int h) {
+            mSurfaceWidth = w;
+            mSurfaceHeight = h;
+            if (mCallback != null) {
+                mCallback.onSurfaceChanged(SurfaceRenderView.this, w, h);
+            }
+        }
+
+        public void surfaceCreated(SurfaceHolder holder) {
+            mHasSurface = true;
+            if (mCallback != null) {
+                mCallback.onSurfaceCreated(SurfaceRenderView.this);
+            }
+        }
+
+        public void surfaceDestroyed(SurfaceHolder holder) {
+            mHasSurface = false;
+            mSurfaceWidth = 0;
+            mSurfaceHeight = 0;
+            if (mCallback != null) {
+                mCallback.onSurfaceDestroyed(SurfaceRenderView.this);
+            }
+        }
+    };
+}
@@ -0,0 +1,68 @@
+package com.infinite.simpleplayer;
+
+import android.content.ComponentCallbacks2;
+
+/**
+ * {@link UniversalVideoView#pause(boolean)}传false(屏幕关闭、切到后台)之后怎么逐步释放播放器:
+ * <ol>
+ * <li>{@link #TIER_PREPARED}:宽限期内保留准备好的播放器,很快回来时直接接着播</li>
+ * <li>{@link #TIER_METADATA}:释放播放器和解码器,只保留时长、画面大小、播放位置和固定的缓存,回来时从本地缓存重新prepare</li>
+ * <li>{@link #TIER_RELEASED}:完全释放,缓存可以被淘汰,拖动预览的缩略图也清掉</li>
+ * </ol>
+ * 系统内存紧张时按onTrimMemory的级别提前进入后面的阶段
+ */
+public class SuspendPolicy {
+
+    public static final int TIER_PREPARED = 0;
+    public static final int TIER_METADATA = 1;
+    public static final int TIER_RELEASED = 2;
+
+    private static final long DEFAULT_GRACE_MILLIS = 10000;
+    private static final long DEFAULT_METADATA_MILLIS = 60000;
+
+    private final long mGraceMillis;
+    private final long mMetadataMillis;
+
+    /**
+     * 保留播放器10秒,再保留元数据1分钟
+     */
+    public SuspendPolicy() {
+        this(DEFAULT_GRACE_MILLIS, DEFAULT_METADATA_MILLIS);
+    }
+
+    /**
+     * @param graceMillis    保留准备好的播放器的时间
+     * @param metadataMillis 释放播放器之后再保留元数据和缓存的时间
+     */
+    public SuspendPolicy(long graceMillis, long metadataMillis) {
+        this.mGraceMillis = graceMillis;
+        this.mMetadataMillis = metadataMillis;
+    }
+
+    /**
+     * @return 进入tier之后多久进入下一个阶段,已经完全释放时返回-1
+     */
+    public long getTierMillis(int tier) {
+        switch (tier) {
+            case TIER_PREPARED:
+                return mGraceMillis;
+            case TIER_METADATA:
+                return mMetadataMillis;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * @return 收到onTrimMemory(level)后至少要进入的阶段,不用提前时返回-1
+     */
+    public int getTierForTrimLevel(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return TIER_RELEASED;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return TIER_METADATA;
+        }
+        return -1;  //TRIM_MEMORY_UI_HIDDEN每次进入后台都会收到,交给计时处理
+    }
+}
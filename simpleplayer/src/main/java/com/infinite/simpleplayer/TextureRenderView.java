@@ -0,0 +1,138 @@
+package com.infinite.simpleplayer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.SurfaceTexture;
+import android.media.MediaPlayer;
+import android.os.Build;
+import android.view.Surface;
+import android.view.TextureView;
+import android.view.View;
+
+/**
+ * TextureView输出:画面作为普通View绘制,可以移动、变换和跟着列表滚动.
+ * <p>
+ * API 16以上View离开窗口时保留SurfaceTexture,播放器继续往里输出,
+ * 回到窗口(全屏切换、换父View、列表复用)后用setSurfaceTexture接上,不用重新打开视频.
+ * 需要开启硬件加速,每帧多一次GPU合成
+ */
+final class TextureRenderView extends TextureView implements RenderView, TextureView.SurfaceTextureListener {
+
+    private final RenderStats mRenderStats;
+    private Callback mCallback;
+    private SurfaceTexture mSurfaceTexture;  //View离开窗口后也保留,直到releaseRetainedSurface
+    private volatile Surface mSurface;  //播放器线程读取
+
+    TextureRenderView(Context context, RenderStats renderStats) {
+        super(context);
+        this.mRenderStats = renderStats;
+        setSurfaceTextureListener(this);
+    }
+
+    @Override
+    public View getView() {
+        return this;
+    }
+
+    @Override
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    @Override
+    public boolean hasSurface() {
+        return mSurface != null;
+    }
+
+    /**
+     * SurfaceTexture的缓冲区大小由播放器决定,不用等
+     */
+    @Override
+    public boolean hasValidSize(int videoWidth, int videoHeight) {
+        return mSurface != null;
+    }
+
+    @Override
+    public void setVideoSize(int videoWidth, int videoHeight) {
+        //画面缩放到View的大小,View的大小由UniversalVideoView按视频比例测量
+    }
+
+    @Override
+    public void bindTo(MediaPlayer mediaPlayer) {
+        mediaPlayer.setSurface(mSurface);
+    }
+
+    /**
+     * GPU直接缩小拷贝,很快
+     */
+    @Override
+    public Bitmap captureFrame(int maxWidth) {
+        if (!isAvailable() || getWidth() == 0 || getHeight() == 0) {
+            return null;
+        }
+        int width = Math.min(maxWidth, getWidth());
+        return getBitmap(width, Math.max(1, getHeight() * width / getWidth()));
+    }
+
+    @Override
+    public void releaseRetainedSurface() {
+        if (mSurfaceTexture != null && !isAvailable()) {
+            releaseSurface();
+        }
+    }
+
+    @Override
+    public void onSurfaceTextureAvailable(SurfaceTexture surfaceTexture, int width, int height) {
+        if (mSurfaceTexture != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            //接上保留的SurfaceTexture,新建的那个由TextureView释放,播放器不用重新连接
+            setSurfaceTexture(mSurfaceTexture);
+            mRenderStats.onSurfaceReattached();
+            return;
+        }
+        mSurfaceTexture = surfaceTexture;
+        mSurface = new Surface(surfaceTexture);
+        if (mCallback != null) {
+            mCallback.onSurfaceCreated(this);
+            mCallback.onSurfaceChanged(this, width, height);
+        }
+    }
+
+    @Override
+    public void onSurfaceTextureSizeChanged(SurfaceTexture surfaceTexture, int width, int height) {
+        if (mCallback != null) {
+            mCallback.onSurfaceChanged(this, width, height);
+        }
+    }
+
+    @Override
+    public boolean onSurfaceTextureDestroyed(SurfaceTexture surfaceTexture) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return false;  //保留,View回到窗口时接着用
+        }
+        releaseSurface();
+        return false;  //已经交给播放器线程释放
+    }
+
+    @Override
+    public void onSurfaceTextureUpdated(SurfaceTexture surfaceTexture) {
+        mRenderStats.onVideoFrameRendered();
+    }
+
+    private void releaseSurface() {
+        final SurfaceTexture surfaceTexture = mSurfaceTexture;
+        final Surface surface = mSurface;
+        mSurfaceTexture = null;
+        mSurface = null;
+        if (mCallback != null) {
+            mCallback.onSurfaceDestroyed(this);
+        }
+        //排在播放器的释放后面,播放器不会再往里输出
+        PlayerThread.getInstance().post("releaseSurface", new Runnable() {
+            @Override
+            public void run() {
+                surface.release();
+                surfaceTexture.release();
+            }
+        });
+    }
+}
@@ -0,0 +1,43 @@
+package com.infinite.simpleplayer;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+/**
+ * 拖动预览缩略图的来源,只在主线程调用,结果也在主线程回调
+ */
+public interface ThumbnailProvider {
+
+    interface Callback {
+
+        /**
+         * 最近一次请求的缩略图取出来了
+         */
+        void onThumbnailLoaded(long positionMillis, Bitmap bitmap);
+    }
+
+    void setCallback(Callback callback);
+
+    /**
+     * 换视频:取消还没执行的请求,清空缓存.传null只取消
+     */
+    void setDataSource(Uri uri);
+
+    /**
+     * 请求position附近的缩略图,同时沿拖动方向预取
+     *
+     * @param forward 是否在向后拖动
+     * @return 已经缓存时直接返回,否则取出来后通过{@link Callback}回调
+     */
+    Bitmap request(long positionMillis, boolean forward);
+
+    /**
+     * 取消还没执行的请求,比如松手时
+     */
+    void cancel();
+
+    /**
+     * 结束后台线程,之后不能再使用
+     */
+    void release();
+}
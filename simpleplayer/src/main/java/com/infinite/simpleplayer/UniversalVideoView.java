@@ -17,16 +17,24 @@
 
 package com.infinite.simpleplayer;
 
+import android.annotation.TargetApi;
 import android.app.Activity;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.pm.ActivityInfo;
+import android.content.res.Configuration;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.Gravity;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.view.SurfaceHolder;
@@ -35,12 +43,27 @@ import android.view.ViewGroup;
 import android.view.WindowManager;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityNodeInfo;
-
-import java.io.IOException;
-
-
-public class UniversalVideoView extends SurfaceView
-        implements MediaPlayerControl, OrientationChangeListener {
+import android.widget.FrameLayout;
+import android.widget.ImageView;
+
+import com.infinite.simpleplayer.cache.HttpProxyCacheServer;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * 视频播放控件,显示用SurfaceView或TextureView,见{@link #setRenderMode(int)}.
+ * <p>
+ * 播放列表在JELLY_BEAN以上用setNextMediaPlayer衔接下一个视频.已知限制:一个Surface同时只能连一个播放器,
+ * 下一个播放器准备时没有Surface,要等切换时释放上一个播放器后才接上,所以只有声音是无缝的,
+ * 画面在切换时会有短暂的停顿
+ */
+public class UniversalVideoView extends FrameLayout
+        implements MediaPlayerControl, ScrubControl, OrientationChangeListener {
     private final String TAG = "UniversalVideoView";
     private Uri mUri;
 
@@ -53,6 +76,23 @@ public class UniversalVideoView extends SurfaceView
     private static final int STATE_PAUSED = 4;
     private static final int STATE_PLAYBACK_COMPLETED = 5;
 
+    /**
+     * 用SurfaceView显示,默认
+     */
+    public static final int RENDER_MODE_SURFACE = 0;
+    /**
+     * 用TextureView显示,View离开窗口再回来时不用重新打开视频
+     */
+    public static final int RENDER_MODE_TEXTURE = 1;
+
+    private static final long DEFAULT_PREFETCH_MILLIS = 5000;  //默认预加载开头5秒
+    private static final long SEEK_TIMEOUT_MILLIS = 1000;  //超过这个时间还没回调onSeekComplete,不再等它
+    private static final long SAVE_POSITION_INTERVAL_MILLIS = 5000;  //播放时定期保存位置
+    private static final int FINISHED_MARGIN_MILLIS = 3000;  //离结尾不到这么多算看完,下次从头播放
+    private static final int SEEK_CLOSEST_SYNC = 2;  //MediaPlayer.SEEK_CLOSEST_SYNC,API 26
+    private static Method sSeekToWithMode;  //MediaPlayer.seekTo(long, int),API 26以下为空
+    private static boolean sSeekToWithModeResolved;
+
     private int mCurrentState = STATE_IDLE;
     private int mTargetState = STATE_IDLE;
 
@@ -60,8 +100,6 @@ public class UniversalVideoView extends SurfaceView
     private int mAudioSession;
     private int mVideoWidth;
     private int mVideoHeight;
-    private int mSurfaceWidth;
-    private int mSurfaceHeight;
     private SimplePlayerController mMediaController;
     private int mCurrentBufferPercentage;
     private int mSeekWhenPrepared;  // recording the seek position while preparing
@@ -75,11 +113,52 @@ public class UniversalVideoView extends SurfaceView
     private int mVideoViewLayoutHeight = 0;
     private OrientationDetector mOrientationDetector;
     private VideoPlayerCallback mVideoPlayerCallback;
-
-    private SurfaceHolder mSurfaceHolder = null;
+    private PlaylistItemChangeListener mPlaylistItemChangeListener;
+    private SeekCompleteListener mSeekCompleteCallback;
+
+    private int mRenderMode = RENDER_MODE_SURFACE;
+    private RenderView mRenderView;
+    private RenderStats mRenderStats;
+    private boolean mZOrderOnTop;  //SurfaceView的设置,重建SurfaceRenderView时重新设置
+    private boolean mZOrderMediaOverlay;
+    private boolean mSecure;
+    private Uri mOpenedUri;  //上一次打开的视频,同一个视频再次打开算一次重新打开
     private MediaPlayer mMediaPlayer = null;
     private int mVideoDuring;
     private int mCurrentPosition = 0;  //记录当前的播放位置
+    private HttpProxyCacheServer mProxyCacheServer;  //边播边缓存的本地代理,为空时直接访问源站
+    private Uri mPinnedUri;  //正在播放的视频不会被缓存淘汰
+    private Uri mThumbnailSpriteIndex;  //当前视频的雪碧图索引,拖动预览用
+    private MediaPlayerPool mPlayerPool;  //预先准备好的播放器,为空时每次都新建
+    private List<Uri> mPlaylist;  //播放列表,为空时只播放单个视频
+    private int mPlaylistIndex = -1;
+    private MediaPlayer mNextMediaPlayer;  //播放列表的下一个视频,准备好后用setNextMediaPlayer接在当前视频后面
+    private boolean mNextPrepared;
+    private final DecoderGovernor mDecoderGovernor = DecoderGovernor.getInstance();  //进程内所有播放器共用的解码器上限
+    private DecoderGovernor.Lease mLease;  //当前播放器占用的解码器
+    private DecoderGovernor.Lease mNextLease;  //播放列表下一个视频的播放器占用的解码器
+    private DecoderGovernor.Lease mPendingLease;  //排队等解码器,轮到时再打开
+    private boolean mEvicted;  //空闲时播放器被收回了,再播放时重新打开
+    private PlayerThread mPlayerThread = PlayerThread.getInstance();  //可能阻塞的播放器调用都在这个线程执行
+    private boolean mZapMode;  //快速切换模式,旧播放器在释放线程销毁,被替换的prepare直接跳过
+    private final AtomicInteger mGeneration = new AtomicInteger();  //每换一次播放器加1,播放器线程据此跳过过期的prepare
+    private PlaybackMetrics mPlaybackMetrics;  //当前视频的启动耗时
+    private PlaybackMetrics.Listener mPlaybackMetricsListener;
+    private final QoeTracker mQoeTracker = new QoeTracker();  //当前视频的卡顿统计
+    private final SeekTracker mSeekTracker = new SeekTracker();  //拖动进度的耗时统计
+    private PositionStore mPositionStore;  //保存每个视频的播放位置,为空时不保存
+    private long mSeekIssuedTime;  //有未完成的seek时为发起时间,否则为0
+    private int mPendingSeek = -1;  //等上一次seek完成后再执行的位置,只保留最新的
+    private boolean mPendingSeekPrecise;
+    private long mSurfaceRetentionMillis;  //Surface销毁后保留播放器的时间,0表示马上释放
+    private boolean mPlayWithoutSurface;  //保留期间是否继续播放声音
+    private boolean mPlayerRetained;  //播放器已经和Surface断开,等Surface重建后接上
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());  //View离开窗口后postDelayed不执行,超时用这个
+    private SuspendPolicy mSuspendPolicy;  //为空时pause(false)直接释放播放器
+    private int mSuspendTier = -1;  //pause(false)之后所在的阶段,没有挂起时为-1
+    private FrameCache mFrameCache;  //为空时不截帧,重新打开时黑屏
+    private ImageView mPosterView;  //重新打开时盖在画面上,第一帧渲染出来后隐藏
+    private int mPosterRequest;  //每次显示或隐藏加1,过期的加载结果直接丢掉
 
     public UniversalVideoView(Context context) {
         this(context, null);
@@ -95,6 +174,7 @@ public class UniversalVideoView extends SurfaceView
         TypedArray a = mContext.obtainStyledAttributes(attrs, R.styleable.UniversalVideoView, 0, 0);
         mFitXY = a.getBoolean(R.styleable.UniversalVideoView_isFitXY, false);
         mAutoRotation = a.getBoolean(R.styleable.UniversalVideoView_isAutoRotation, false);
+        mRenderMode = a.getInt(R.styleable.UniversalVideoView_renderMode, RENDER_MODE_SURFACE);
         a.recycle();
         initVideoView();
     }
@@ -102,8 +182,7 @@ public class UniversalVideoView extends SurfaceView
     private void initVideoView() {
         mVideoWidth = 0;
         mVideoHeight = 0;
-        getHolder().addCallback(mSHCallback);
-        getHolder().setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
+        createRenderView();
         setFocusable(true);
         setFocusableInTouchMode(true);
         requestFocus();
@@ -146,14 +225,260 @@ public class UniversalVideoView extends SurfaceView
         mAutoRotation = auto;
     }
 
+    /**
+     * 选择显示方式,在setVideoURI之前调用,播放中切换会重新打开视频
+     *
+     * @param renderMode {@link #RENDER_MODE_SURFACE}或者{@link #RENDER_MODE_TEXTURE}
+     */
+    public void setRenderMode(int renderMode) {
+        if (renderMode == mRenderMode) {
+            return;
+        }
+        onPlayingChanged(false);
+        mRenderMode = renderMode;
+        removeView(mRenderView.getView());
+        mRenderView.releaseRetainedSurface();
+        createRenderView();
+    }
+
+    public int getRenderMode() {
+        return mRenderMode;
+    }
+
+    /**
+     * SurfaceView模式下的SurfaceHolder,可以添加{@link SurfaceHolder.Callback}.
+     * 切换显示方式后SurfaceView会重建,需要重新获取
+     *
+     * @return TextureView模式下返回null
+     */
+    public SurfaceHolder getHolder() {
+        SurfaceView surfaceView = getSurfaceView();
+        return surfaceView != null ? surfaceView.getHolder() : null;
+    }
+
+    /**
+     * 同{@link SurfaceView#setZOrderOnTop},只对SurfaceView模式有效,要在加到窗口之前调用
+     */
+    public void setZOrderOnTop(boolean onTop) {
+        mZOrderOnTop = onTop;
+        SurfaceView surfaceView = getSurfaceView();
+        if (surfaceView != null) {
+            surfaceView.setZOrderOnTop(onTop);
+        }
+    }
+
+    /**
+     * 同{@link SurfaceView#setZOrderMediaOverlay},只对SurfaceView模式有效,要在加到窗口之前调用
+     */
+    public void setZOrderMediaOverlay(boolean isMediaOverlay) {
+        mZOrderMediaOverlay = isMediaOverlay;
+        SurfaceView surfaceView = getSurfaceView();
+        if (surfaceView != null) {
+            surfaceView.setZOrderMediaOverlay(isMediaOverlay);
+        }
+    }
+
+    /**
+     * 同{@link SurfaceView#setSecure},只对SurfaceView模式有效,要在加到窗口之前调用
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    public void setSecure(boolean isSecure) {
+        mSecure = isSecure;
+        SurfaceView surfaceView = getSurfaceView();
+        if (surfaceView != null) {
+            surfaceView.setSecure(isSecure);
+        }
+    }
+
+    private SurfaceView getSurfaceView() {
+        return mRenderView instanceof SurfaceRenderView ? (SurfaceRenderView) mRenderView : null;
+    }
+
+    /**
+     * @return 当前显示方式的渲染统计,切换显示方式时重新统计
+     */
+    public RenderStats getRenderStats() {
+        return mRenderStats;
+    }
+
+    private void createRenderView() {
+        mRenderStats = new RenderStats(mRenderMode);
+        if (mRenderMode == RENDER_MODE_TEXTURE) {
+            mRenderView = new TextureRenderView(mContext, mRenderStats);
+        } else {
+            SurfaceRenderView surfaceView = new SurfaceRenderView(mContext);
+            if (mZOrderOnTop) {
+                surfaceView.setZOrderOnTop(true);
+            }
+            if (mZOrderMediaOverlay) {
+                surfaceView.setZOrderMediaOverlay(true);
+            }
+            if (mSecure && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+                surfaceView.setSecure(true);
+            }
+            mRenderView = surfaceView;
+        }
+        mRenderView.setCallback(mRenderCallback);
+        if (mVideoWidth != 0 && mVideoHeight != 0) {
+            mRenderView.setVideoSize(mVideoWidth, mVideoHeight);
+        }
+        addView(mRenderView.getView(), 0, new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT, Gravity.CENTER));
+    }
+
+
+    /**
+     * 设置边播边缓存的本地代理,设置后网络视频通过代理播放.传null关闭缓存
+     *
+     * @param server 应用内共用一个实例
+     */
+    public void setProxyCacheServer(HttpProxyCacheServer server) {
+        unpinCache();
+        mProxyCacheServer = server;
+    }
+
+    /**
+     * @return 没有设置时返回null
+     */
+    public HttpProxyCacheServer getProxyCacheServer() {
+        return mProxyCacheServer;
+    }
+
+    /**
+     * 预加载下一个要播放的视频的开头,需要先设置{@link #setProxyCacheServer}
+     */
+    public void prefetch(Uri uri) {
+        prefetch(uri, DEFAULT_PREFETCH_MILLIS);
+    }
+
+    /**
+     * @param millis 预加载开头多少毫秒
+     */
+    public void prefetch(Uri uri, long millis) {
+        if (mProxyCacheServer == null) {
+            Log.w(TAG, "No proxy cache server, skip prefetch " + uri);
+            return;
+        }
+        mProxyCacheServer.prefetchDuration(uri, millis);
+    }
+
+    public void cancelPrefetch(Uri uri) {
+        if (mProxyCacheServer != null) {
+            mProxyCacheServer.cancelPrefetch(uri);
+        }
+    }
+
+    /**
+     * @return 当前视频的启动耗时,没有设置过视频时返回null
+     */
+    public PlaybackMetrics getPlaybackMetrics() {
+        return mPlaybackMetrics;
+    }
+
+    /**
+     * @return 当前视频的卡顿统计,每次setVideoURI重新统计
+     */
+    public QoeTracker getQoeTracker() {
+        return mQoeTracker;
+    }
+
+    /**
+     * @return 拖动进度的耗时统计,换视频时不清空
+     */
+    public SeekTracker getSeekTracker() {
+        return mSeekTracker;
+    }
+
+    /**
+     * 每个视频第一帧渲染出来时回调启动耗时
+     */
+    public void setPlaybackMetricsListener(PlaybackMetrics.Listener listener) {
+        mPlaybackMetricsListener = listener;
+    }
+
+    /**
+     * 快速切换模式,适合用户连续切换视频的场景:
+     * 旧播放器交给释放线程销毁,不阻塞新视频的准备;还没轮到执行就被替换的prepare直接跳过,
+     * 连续切换时只有最后一个视频会真正设置数据源
+     */
+    public void setZapMode(boolean zapMode) {
+        mZapMode = zapMode;
+    }
+
+    /**
+     * Surface被销毁时(旋转、全屏切换、Activity进入后台)不释放播放器,只断开显示,
+     * Surface重建后直接接上,不用重新prepare和缓冲.超时还没重建才释放
+     *
+     * @param timeoutMillis      保留的时间,0表示马上释放(默认)
+     * @param playWithoutSurface 保留期间是否继续播放声音,false时暂停,接上后恢复
+     */
+    public void setSurfaceRetention(long timeoutMillis, boolean playWithoutSurface) {
+        mSurfaceRetentionMillis = timeoutMillis;
+        mPlayWithoutSurface = playWithoutSurface;
+    }
+
+    /**
+     * 设置pause(false)之后逐步释放播放器的策略,不设置时马上释放播放器
+     */
+    public void setSuspendPolicy(SuspendPolicy policy) {
+        mSuspendPolicy = policy;
+    }
+
+    /**
+     * 设置后暂停和离开时截下当前帧,重新打开同一个视频时先显示截下的帧,第一帧渲染出来后再去掉
+     *
+     * @param cache 一般用{@link FrameCache#getInstance(Context)}
+     */
+    public void setFrameCache(FrameCache cache) {
+        mFrameCache = cache;
+        if (cache != null && mPosterView == null) {
+            mPosterView = new ImageView(mContext);
+            mPosterView.setScaleType(ImageView.ScaleType.FIT_CENTER);
+            mPosterView.setVisibility(GONE);
+            addView(mPosterView, new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT, Gravity.CENTER));
+        }
+        if (cache == null) {
+            hidePoster();
+        }
+    }
+
+    /**
+     * 设置后暂停、停止和播放过程中会保存位置,再打开同一个视频时从上次的位置开始
+     *
+     * @param store 一般用{@link PositionStore#getInstance(Context)}
+     */
+    public void setPositionStore(PositionStore store) {
+        mPositionStore = store;
+    }
+
+    /**
+     * 设置播放器池,播放池里已经准备好的视频时直接接管,不再新建和prepare
+     */
+    public void setPlayerPool(MediaPlayerPool pool) {
+        mPlayerPool = pool;
+    }
 
     public void setVideoPath(String path) {
         setVideoURI(Uri.parse(path));
     }
 
     public void setVideoURI(Uri uri) {
+        clearPlaylist();
+        playUri(uri);
+    }
+
+    private void playUri(Uri uri) {
+        savePosition();  //换视频前保存上一个
+        endSuspend();
         mUri = uri;
-        mSeekWhenPrepared = 0;
+        mThumbnailSpriteIndex = null;
+        mPlaybackMetrics = new PlaybackMetrics(uri);
+        mQoeTracker.reset();
+        mCurrentPosition = 0;
+        mSeekWhenPrepared = mPositionStore != null ? mPositionStore.get(uri) : 0;
+        mOpenedUri = null;
+        if (mPlayerRetained) {
+            release(false);  //保留的是上一个视频的播放器
+        }
         openVideo();
         requestLayout();
         invalidate();
@@ -178,61 +503,371 @@ public class UniversalVideoView extends SurfaceView
 //    }
 
 
+    /**
+     * 设置当前视频的雪碧图索引(WebVTT),拖动预览直接从服务端生成的雪碧图截取,不在本地取帧.
+     * 在setVideoURI之后调用,换视频时失效
+     */
+    public void setThumbnailSprites(Uri indexUri) {
+        mThumbnailSpriteIndex = indexUri;
+        updatePreviewSource();
+    }
+
+    /**
+     * 按顺序播放列表,当前视频准备好后就开始准备下一个,播放完无缝切换.
+     * 切换时回调{@link PlaylistItemChangeListener}
+     */
+    public void setPlaylist(List<Uri> playlist) {
+        setPlaylist(playlist, 0);
+    }
+
+    public void setPlaylist(List<Uri> playlist, int startIndex) {
+        releaseNextPlayer();
+        mPlaylist = new ArrayList<>(playlist);
+        playPlaylistItem(startIndex);
+    }
+
+    /**
+     * 跳到播放列表的第index个视频
+     */
+    public void playPlaylistItem(int index) {
+        if (mPlaylist == null || index < 0 || index >= mPlaylist.size()) {
+            return;
+        }
+        releaseNextPlayer();
+        mPlaylistIndex = index;
+        playUri(mPlaylist.get(index));
+        if (mPlaylistItemChangeListener != null) {
+            mPlaylistItemChangeListener.onPlaylistItemChanged(index, mUri);
+        }
+    }
+
+    /**
+     * @return 当前视频在播放列表里的位置,没有播放列表时返回-1
+     */
+    public int getPlaylistIndex() {
+        return mPlaylistIndex;
+    }
+
+    public void clearPlaylist() {
+        releaseNextPlayer();
+        mPlaylist = null;
+        mPlaylistIndex = -1;
+    }
+
+    private boolean hasNextPlaylistItem() {
+        return mPlaylist != null && mPlaylistIndex + 1 < mPlaylist.size();
+    }
+
+    /**
+     * 提前准备播放列表的下一个视频,不占用主线程
+     */
+    private void prepareNextPlayer() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN || mNextMediaPlayer != null
+                || mMediaPlayer == null || !hasNextPlaylistItem()) {
+            return;
+        }
+        mNextLease = mDecoderGovernor.tryAcquire(mLeaseOwner);
+        if (mNextLease == null) {
+            Log.d(TAG, "No free decoder, skip preparing next item");  //播放完再按普通方式打开
+            return;
+        }
+        mNextLease.setIdle(true);  //还没开始播放,需要时可以收回
+        Uri uri = mPlaylist.get(mPlaylistIndex + 1);
+        mNextMediaPlayer = new MediaPlayer();
+        mNextPrepared = false;
+        mNextMediaPlayer.setAudioSessionId(mAudioSession);
+        mNextMediaPlayer.setOnPreparedListener(mNextPreparedListener);
+        mNextMediaPlayer.setOnErrorListener(mNextErrorListener);
+        mPlayerThread.prepareAsync(mNextMediaPlayer, mContext,
+                mProxyCacheServer != null ? mProxyCacheServer.getProxyUri(uri) : uri, null, mNextErrorListener);
+    }
+
+    private void releaseNextPlayer() {
+        if (mNextMediaPlayer != null) {
+            if (mMediaPlayer != null && mNextPrepared) {
+                unchainNextPlayer();  //只有JELLY_BEAN以上才会链接
+            }
+            mPlayerThread.release(mNextMediaPlayer);
+            mNextMediaPlayer = null;
+            mNextPrepared = false;
+        }
+        if (mNextLease != null) {
+            mNextLease.release();
+            mNextLease = null;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void unchainNextPlayer() {
+        try {
+            mMediaPlayer.setNextMediaPlayer(null);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Error clearing next player", e);
+        }
+    }
+
+    /**
+     * 当前视频播放完,MediaPlayer已经自动开始播放下一个,这里把下一个接管为当前播放器
+     */
+    private void switchToNextPlayer() {
+        MediaPlayer previous = mMediaPlayer;
+        mMediaPlayer = mNextMediaPlayer;
+        mNextMediaPlayer = null;
+        mNextPrepared = false;
+        mPlayerThread.release(previous);  //先断开Surface,下一个才能连上,播放器线程按顺序执行
+        if (mLease != null) {
+            mLease.release();
+        }
+        mLease = mNextLease;
+        mNextLease = null;
+        if (mLease != null) {
+            mLease.setIdle(false);
+        }
+        mPlaylistIndex++;
+        mUri = mPlaylist.get(mPlaylistIndex);
+        mThumbnailSpriteIndex = null;
+        mPlaybackMetrics = new PlaybackMetrics(mUri);
+        mPlaybackMetrics.setReusedPlayer(true);
+        mPlaybackMetrics.markDataSourceSet();
+        mPlaybackMetrics.markPrepared();
+        mPlaybackMetrics.markSurfaceReady();
+        mQoeTracker.reset();
+        mQoeTracker.onPlaying();
+        mQoeTracker.onFirstFrame();  //下一个播放器已经在出画面,不会再有首帧回调
+        getDataSourceUri();  //固定新视频的缓存
+        mOpenedUri = mUri;
+        setPlayerListeners(mMediaPlayer);
+        if (!mPlayerRetained) {
+            mPlayerThread.setDisplay(mMediaPlayer, mRenderView);  //没有Surface时等重建后接上
+        }
+        mCurrentState = STATE_PLAYING;
+        mTargetState = STATE_PLAYING;
+        mCurrentBufferPercentage = 0;
+        mSeekWhenPrepared = 0;
+        mCurrentPosition = 0;
+        mVideoDuring = mMediaPlayer.getDuration();
+        int videoWidth = mMediaPlayer.getVideoWidth();
+        int videoHeight = mMediaPlayer.getVideoHeight();
+        if (videoWidth != 0 && videoHeight != 0 && (videoWidth != mVideoWidth || videoHeight != mVideoHeight)) {
+            mVideoWidth = videoWidth;
+            mVideoHeight = videoHeight;
+            mRenderView.setVideoSize(mVideoWidth, mVideoHeight);
+            requestLayout();
+        }
+        updatePreviewSource();
+        if (mPlaylistItemChangeListener != null) {
+            mPlaylistItemChangeListener.onPlaylistItemChanged(mPlaylistIndex, mUri);
+        }
+        prepareNextPlayer();
+    }
+
+    private MediaPlayer.OnPreparedListener mNextPreparedListener = new MediaPlayer.OnPreparedListener() {
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+        public void onPrepared(MediaPlayer mp) {
+            if (mp != mNextMediaPlayer || mMediaPlayer == null) {
+                return;
+            }
+            try {
+                mMediaPlayer.setNextMediaPlayer(mp);
+                mNextPrepared = true;
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Error chaining next player", e);
+                releaseNextPlayer();
+            }
+        }
+    };
+
+    private MediaPlayer.OnErrorListener mNextErrorListener = new MediaPlayer.OnErrorListener() {
+        public boolean onError(MediaPlayer mp, int what, int extra) {
+            //下一个视频准备失败不影响当前视频,播放完再按普通方式打开
+            Log.w(TAG, "Error preparing next item, what=" + what + ", extra=" + extra);
+            if (mp == mNextMediaPlayer) {
+                releaseNextPlayer();
+            }
+            return true;
+        }
+    };
+
     /**
      * 停止播放
      */
     public void stopPlayback() {
+        savePosition();
+        endSuspend();
+        hidePoster();
+        cancelPendingLease();
+        mEvicted = false;
+        releaseNextPlayer();
+        mQoeTracker.onStopped();
         if (mMediaPlayer != null) {
-            mMediaPlayer.stop();
-            mMediaPlayer.release();
+            releasePlayer(mMediaPlayer, true);
             mMediaPlayer = null;
             mCurrentState = STATE_IDLE;
             mTargetState = STATE_IDLE;
         }
+        unpinCache();
+        mRenderView.releaseRetainedSurface();
     }
 
     /**
      * 开始播放
      */
     private void openVideo() {
-        if (mUri == null || mSurfaceHolder == null) {
+        if (mUri == null || !mRenderView.hasSurface()) {
             return;
         }
+        endSuspend();
+        if (mUri.equals(mOpenedUri)) {
+            mRenderStats.onReopen();  //Surface重建或者屏幕关闭后回来
+        }
+        mOpenedUri = mUri;
+        showPoster(mSeekWhenPrepared != 0 ? mSeekWhenPrepared : mCurrentPosition);
         AudioManager am = (AudioManager) mContext.getSystemService(Context.AUDIO_SERVICE);
         am.requestAudioFocus(null, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN);
 
         //这里不清除下一个状态，因为可能之前调用了start()方法
         release(false);
-        try {
+        mEvicted = false;
+        MediaPlayerPool.PooledPlayer pooledPlayer = mPlayerPool != null ? mPlayerPool.acquire(mUri) : null;
+        if (pooledPlayer != null) {
+            cancelPendingLease();
+            mLease = pooledPlayer.mLease;
+            mLease.setOwner(mLeaseOwner);
+            mLease.setIdle(false);
+        } else if (!acquireLease()) {
+            return;  //排队中,轮到时再打开
+        }
+        final PlaybackMetrics metrics = mPlaybackMetrics;
+        if (pooledPlayer != null) {
+            mMediaPlayer = pooledPlayer.mMediaPlayer;
+            metrics.setReusedPlayer(true);
+            metrics.markDataSourceSet();
+            getDataSourceUri();  //池里的播放器已经设置过数据源,这里只固定缓存
+            mPlayerThread.setDisplay(mMediaPlayer, mRenderView);
+        } else {
             mMediaPlayer = new MediaPlayer();
             if (mAudioSession != 0) {
                 mMediaPlayer.setAudioSessionId(mAudioSession);
             } else {
                 mAudioSession = mMediaPlayer.getAudioSessionId();
             }
-            mMediaPlayer.setOnPreparedListener(mPreparedListener);
-            mMediaPlayer.setOnVideoSizeChangedListener(mVideoSizeChangedListener);
-            mMediaPlayer.setOnCompletionListener(mCompletionListener);
-            mMediaPlayer.setOnErrorListener(mErrorListener);
-            mMediaPlayer.setOnInfoListener(mInfoListener);
-            mMediaPlayer.setOnBufferingUpdateListener(mBufferingUpdateListener);
-            mCurrentBufferPercentage = 0;
-            mMediaPlayer.setDataSource(mContext, mUri);
-            mMediaPlayer.setDisplay(mSurfaceHolder);
-            mMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-            mMediaPlayer.setScreenOnWhilePlaying(true);
-            mMediaPlayer.prepareAsync();
-
-            // 这里不设置目标状态,但保存目标状态
-            mCurrentState = STATE_PREPARING;
-            attachMediaController();
-        } catch (IOException ex) {
-            mCurrentState = STATE_ERROR;
-            mTargetState = STATE_ERROR;
-            mErrorListener.onError(mMediaPlayer, MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
+            //setDataSource可能要解析网络地址,在播放器线程执行,失败时回到主线程报错
+            mPlayerThread.prepareAsync(mMediaPlayer, mContext, getDataSourceUri(), mRenderView,
+                    mDataSourceErrorListener, new Runnable() {
+                        @Override
+                        public void run() {
+                            metrics.markDataSourceSet();
+                        }
+                    }, mZapMode ? mGeneration : null, mGeneration.get());
+        }
+        setPlayerListeners(mMediaPlayer);
+        mCurrentBufferPercentage = 0;
+
+        // 这里不设置目标状态,但保存目标状态
+        mCurrentState = STATE_PREPARING;
+        attachMediaController();
+        if (pooledPlayer != null && pooledPlayer.mPrepared) {
+            //池里的播放器已经准备好了,不会再回调onPrepared
+            mPreparedListener.onPrepared(mMediaPlayer);
         }
     }
 
+    /**
+     * 向{@link DecoderGovernor}申请解码器,没有空闲的时排队
+     *
+     * @return 是否已经拿到
+     */
+    private boolean acquireLease() {
+        if (mPendingLease == null) {
+            mPendingLease = mDecoderGovernor.acquire(mLeaseOwner);
+        }
+        if (!mPendingLease.isGranted()) {
+            Log.d(TAG, "Waiting for decoder: " + mUri);
+            return false;
+        }
+        mLease = mPendingLease;
+        mPendingLease = null;
+        mPlaybackMetrics.setDecoderQueueMillis(mLease.getQueueMillis());
+        return true;
+    }
+
+    private void cancelPendingLease() {
+        if (mPendingLease != null) {
+            mPendingLease.release();
+            mPendingLease = null;
+        }
+    }
+
+    private DecoderGovernor.Owner mLeaseOwner = new DecoderGovernor.Owner() {
+        @Override
+        public void onGranted(DecoderGovernor.Lease lease) {
+            if (lease != mPendingLease) {
+                return;
+            }
+            if (mUri == null || !mRenderView.hasSurface()) {
+                cancelPendingLease();  //等的时候Surface没了,Surface创建后重新申请
+                return;
+            }
+            openVideo();
+        }
+
+        @Override
+        public void onEvict(DecoderGovernor.Lease lease) {
+            if (lease == mNextLease) {
+                releaseNextPlayer();
+            } else if (lease == mLease) {
+                evictPlayer();
+            } else {
+                lease.release();
+            }
+        }
+    };
+
+    /**
+     * 空闲的播放器被别的播放器要走了,记住位置后释放,再播放时重新打开
+     */
+    private void evictPlayer() {
+        Log.d(TAG, "Decoder reclaimed, release idle player for " + mUri);
+        savePosition();
+        if (isInPlaybackState()) {
+            mCurrentPosition = getCurrentPosition();
+        }
+        release(false);
+        mEvicted = true;
+    }
+
+    private void setPlayerListeners(MediaPlayer mediaPlayer) {
+        mediaPlayer.setOnPreparedListener(mPreparedListener);
+        mediaPlayer.setOnVideoSizeChangedListener(mVideoSizeChangedListener);
+        mediaPlayer.setOnCompletionListener(mCompletionListener);
+        mediaPlayer.setOnErrorListener(mErrorListener);
+        mediaPlayer.setOnInfoListener(mInfoListener);
+        mediaPlayer.setOnBufferingUpdateListener(mBufferingUpdateListener);
+        mediaPlayer.setOnSeekCompleteListener(mSeekCompleteListener);
+    }
+
+    /**
+     * 开启了缓存时返回本地代理地址,同时固定当前视频的缓存
+     */
+    private Uri getDataSourceUri() {
+        if (mProxyCacheServer == null) {
+            return mUri;
+        }
+        if (!mUri.equals(mPinnedUri)) {
+            unpinCache();
+            mProxyCacheServer.pin(mUri);
+            mPinnedUri = mUri;
+        }
+        return mProxyCacheServer.getProxyUri(mUri);
+    }
+
+    private void unpinCache() {
+        if (mProxyCacheServer != null && mPinnedUri != null) {
+            mProxyCacheServer.unpin(mPinnedUri);
+        }
+        mPinnedUri = null;
+    }
+
     /**
      * 设置播放界面控制器
      *
@@ -251,6 +886,17 @@ public class UniversalVideoView extends SurfaceView
             mMediaController.setMediaPlayer(this);
             mMediaController.setEnabled(isInPlaybackState());
             mMediaController.hide();
+            updatePreviewSource();
+        }
+    }
+
+    /**
+     * 拖动预览跟着当前视频走,开启了缓存时也通过代理取帧
+     */
+    private void updatePreviewSource() {
+        if (mMediaController != null) {
+            mMediaController.setPreviewSource(mProxyCacheServer != null && mUri != null
+                    ? mProxyCacheServer.getProxyUri(mUri) : mUri, mThumbnailSpriteIndex);
         }
     }
 
@@ -260,7 +906,7 @@ public class UniversalVideoView extends SurfaceView
                     mVideoWidth = mp.getVideoWidth();
                     mVideoHeight = mp.getVideoHeight();
                     if (mVideoWidth != 0 && mVideoHeight != 0) {
-                        getHolder().setFixedSize(mVideoWidth, mVideoHeight);
+                        mRenderView.setVideoSize(mVideoWidth, mVideoHeight);
 //                        if (!isInLayout()) {
                         requestLayout();
 //                        }
@@ -273,8 +919,12 @@ public class UniversalVideoView extends SurfaceView
         public void onPrepared(MediaPlayer mp) {
 
             mCurrentState = STATE_PREPARED;
+            mPlaybackMetrics.markPrepared();
             mCanPause = mCanSeekBack = mCanSeekForward = true;
             mPreparedBeforeStart = true;
+            if (mTargetState != STATE_PLAYING && mLease != null) {
+                mLease.setIdle(true);  //准备好了但是不播放,排队的播放器需要时可以收回
+            }
             if (mMediaController != null) {
                 mMediaController.hideLoading();
             }
@@ -288,14 +938,20 @@ public class UniversalVideoView extends SurfaceView
             mVideoHeight = mp.getVideoHeight();
 
             int seekToPosition = mSeekWhenPrepared;  // mSeekWhenPrepared may be changed after seekTo() call
+            if (seekToPosition == 0 && mCurrentPosition == 0 && mPositionStore != null) {
+                seekToPosition = mPositionStore.get(mUri);  //setVideoURI时位置可能还没加载完
+            }
             if (seekToPosition != 0) {
                 seekTo(seekToPosition);
             }
             if (mVideoWidth != 0 && mVideoHeight != 0) {
-                getHolder().setFixedSize(mVideoWidth, mVideoHeight);
-                if (mSurfaceWidth == mVideoWidth && mSurfaceHeight == mVideoHeight) { //Surface大小和Video大小一致了，可以开始播放了
+                mRenderView.setVideoSize(mVideoWidth, mVideoHeight);
+                if (mRenderView.hasValidSize(mVideoWidth, mVideoHeight)) { //Surface大小和Video大小一致了，可以开始播放了
+                    mPlaybackMetrics.markSurfaceReady();
                     if (mTargetState == STATE_PLAYING) {
-                        mMediaPlayer.seekTo(mCurrentPosition);
+                        if (seekToPosition == 0 && mCurrentPosition != 0) {
+                            issueSeek(mCurrentPosition, true);  //屏幕关闭时释放了播放器,回到原来的位置
+                        }
                         start();
                         if (mMediaController != null) {
                             mMediaController.show();
@@ -313,12 +969,28 @@ public class UniversalVideoView extends SurfaceView
                     start();
                 }
             }
+            prepareNextPlayer();
         }
     };
 
     private MediaPlayer.OnCompletionListener mCompletionListener =
             new MediaPlayer.OnCompletionListener() {
                 public void onCompletion(MediaPlayer mp) {
+                    mQoeTracker.onStopped();
+                    removeCallbacks(mSavePositionRunnable);
+                    onPlayingChanged(false);
+                    if (mPositionStore != null) {
+                        mPositionStore.remove(mUri);  //看完了,下次从头播放
+                    }
+                    if (mp == mMediaPlayer && mNextMediaPlayer != null && mNextPrepared) {
+                        switchToNextPlayer();
+                        return;
+                    }
+                    if (hasNextPlaylistItem()) {
+                        //下一个还没准备好或者系统不支持无缝切换,按普通方式打开
+                        playPlaylistItem(mPlaylistIndex + 1);
+                        return;
+                    }
                     mCurrentState = STATE_PLAYBACK_COMPLETED;
                     mTargetState = STATE_PLAYBACK_COMPLETED;
                     if (mMediaController != null) {
@@ -340,6 +1012,7 @@ public class UniversalVideoView extends SurfaceView
             switch (what) {
                 case MediaPlayer.MEDIA_INFO_BUFFERING_START:
                     Log.i(TAG, "------onInfo:BUFFERING_START ");
+                    mQoeTracker.onBufferingStart();
                     if (mVideoPlayerCallback != null) {
                         mVideoPlayerCallback.onBufferingStart(mMediaPlayer);
                     }
@@ -349,6 +1022,7 @@ public class UniversalVideoView extends SurfaceView
                     }
                     break;
                 case MediaPlayer.MEDIA_INFO_BUFFERING_END:
+                    mQoeTracker.onBufferingEnd();
                     if (mVideoPlayerCallback != null) {
                         mVideoPlayerCallback.onBufferingEnd(mMediaPlayer);
                     }
@@ -356,6 +1030,12 @@ public class UniversalVideoView extends SurfaceView
                         mMediaController.hideLoading();
                     }
                     break;
+                case MediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START:
+                    onFirstFrameRendered();
+                    if (mVideoPlayerCallback != null) {
+                        mVideoPlayerCallback.onInfo(mp, what, extra);
+                    }
+                    break;
                 default:
                     if (mVideoPlayerCallback != null) {
                         mVideoPlayerCallback.onInfo(mp, what, extra);
@@ -366,8 +1046,22 @@ public class UniversalVideoView extends SurfaceView
         }
     };
 
+    private void onFirstFrameRendered() {
+        hidePoster();
+        mQoeTracker.onFirstFrame();
+        if (mPlaybackMetrics != null && mPlaybackMetrics.markFirstFrame()) {
+            Log.i(TAG, "First frame rendered: " + mPlaybackMetrics);
+            if (mPlaybackMetricsListener != null) {
+                mPlaybackMetricsListener.onFirstFrameRendered(mPlaybackMetrics);
+            }
+        }
+    }
+
     private MediaPlayer.OnErrorListener mErrorListener = new MediaPlayer.OnErrorListener() {
         public boolean onError(MediaPlayer mp, int what, int extra) {
+            mQoeTracker.onStopped();
+            onPlayingChanged(false);
+            hidePoster();
             mCurrentState = STATE_ERROR;
             mTargetState = STATE_ERROR;
             if (mMediaController != null) {
@@ -381,6 +1075,18 @@ public class UniversalVideoView extends SurfaceView
         }
     };
 
+    /**
+     * 播放器线程设置数据源失败,播放器已经被替换时忽略
+     */
+    private MediaPlayer.OnErrorListener mDataSourceErrorListener = new MediaPlayer.OnErrorListener() {
+        public boolean onError(MediaPlayer mp, int what, int extra) {
+            if (mp != mMediaPlayer) {
+                return true;
+            }
+            return mErrorListener.onError(mp, what, extra);
+        }
+    };
+
     private MediaPlayer.OnBufferingUpdateListener mBufferingUpdateListener = new MediaPlayer.OnBufferingUpdateListener() {
         public void onBufferingUpdate(MediaPlayer mp, int percent) {
             mCurrentBufferPercentage = percent;
@@ -391,12 +1097,34 @@ public class UniversalVideoView extends SurfaceView
     };
 
 
-    private SurfaceHolder.Callback mSHCallback = new SurfaceHolder.Callback() {
-        public void surfaceChanged(SurfaceHolder holder, int format, int w, int h) {
-            mSurfaceWidth = w;
-            mSurfaceHeight = h;
+    private MediaPlayer.OnSeekCompleteListener mSeekCompleteListener = new MediaPlayer.OnSeekCompleteListener() {
+        public void onSeekComplete(MediaPlayer mp) {
+            if (mp != mMediaPlayer) {
+                return;
+            }
+            mSeekIssuedTime = 0;
+            mQoeTracker.onSeekComplete();
+            long latencyMillis = mSeekTracker.onSeekComplete();
+            if (latencyMillis >= 0) {
+                Log.d(TAG, "Seek completed in " + latencyMillis + "ms");
+            }
+            if (mPendingSeek >= 0 && isInPlaybackState()) {
+                issueSeek(mPendingSeek, mPendingSeekPrecise);  //拖动过程中攒下的最新位置
+                return;
+            }
+            if (mSeekCompleteCallback != null) {
+                mSeekCompleteCallback.onSeekComplete(mp);
+            }
+        }
+    };
+
+    private RenderView.Callback mRenderCallback = new RenderView.Callback() {
+        public void onSurfaceChanged(RenderView renderView, int width, int height) {
             boolean isValidState = (mTargetState == STATE_PLAYING);
-            boolean hasValidSize = (mVideoWidth == w && mVideoHeight == h);
+            boolean hasValidSize = renderView.hasValidSize(mVideoWidth, mVideoHeight);
+            if (isInPlaybackState() && hasValidSize) {
+                mPlaybackMetrics.markSurfaceReady();
+            }
             if (mMediaPlayer != null && isValidState && hasValidSize) {
                 if (mSeekWhenPrepared != 0) {
                     seekTo(mSeekWhenPrepared);
@@ -405,22 +1133,74 @@ public class UniversalVideoView extends SurfaceView
             }
         }
 
-        public void surfaceCreated(SurfaceHolder holder) {
-            mSurfaceHolder = holder;
-            openVideo();
+        public void onSurfaceCreated(RenderView renderView) {
+            mRenderStats.onSurfaceCreated();
+            if (mPlayerRetained) {
+                reattachPlayer();
+            } else {
+                openVideo();
+            }
             enableOrientationDetect();
         }
 
-        public void surfaceDestroyed(SurfaceHolder holder) {
-            mSurfaceHolder = null;
+        public void onSurfaceDestroyed(RenderView renderView) {
+            savePosition();
+            if (isInPlaybackState()) {
+                captureFrame(mMediaPlayer.getCurrentPosition());
+            }
             if (mMediaController != null) {
                 mMediaController.hide();
             }
-            release(true);
+            boolean retain = mSurfaceRetentionMillis > 0 || mSuspendTier == SuspendPolicy.TIER_PREPARED;
+            if (retain && mMediaPlayer != null && mCurrentState != STATE_ERROR) {
+                retainPlayer();
+            } else {
+                release(true);
+            }
             disableOrientationDetect();
         }
     };
 
+    /**
+     * 断开显示,保留准备好的播放器和缓冲
+     */
+    private void retainPlayer() {
+        mPlayerThread.detachDisplay(mMediaPlayer);
+        mPlayerRetained = true;
+        if (!mPlayWithoutSurface && isPlaying()) {
+            mQoeTracker.onStopped();
+            removeCallbacks(mSavePositionRunnable);
+            onPlayingChanged(false);
+            mMediaPlayer.pause();
+            mCurrentState = STATE_PAUSED;  //目标状态还是播放,接上后恢复
+        }
+        mMainHandler.removeCallbacks(mRetentionTimeoutRunnable);
+        if (mSuspendTier < 0) {
+            mMainHandler.postDelayed(mRetentionTimeoutRunnable, mSurfaceRetentionMillis);  //挂起期间由挂起策略决定什么时候释放
+        }
+    }
+
+    /**
+     * 接上保留的播放器,后面的onSurfaceChanged会按目标状态恢复播放
+     */
+    private void reattachPlayer() {
+        mMainHandler.removeCallbacks(mRetentionTimeoutRunnable);
+        mPlayerRetained = false;
+        mRenderStats.onSurfaceReattached();
+        mPlayerThread.setDisplay(mMediaPlayer, mRenderView);
+    }
+
+    private Runnable mRetentionTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mPlayerRetained) {
+                Log.d(TAG, "Surface not recreated in " + mSurfaceRetentionMillis + "ms, release player");
+                savePosition();
+                release(true);
+            }
+        }
+    };
+
     private void enableOrientationDetect() {
         if (mAutoRotation && mOrientationDetector == null) {
             mOrientationDetector = new OrientationDetector(mContext);
@@ -435,15 +1215,163 @@ public class UniversalVideoView extends SurfaceView
         }
     }
 
+    /**
+     * 截下当前帧交给{@link FrameCache},TextureView模式直接读画面,否则在后台线程从视频里取
+     */
+    private void captureFrame(int positionMillis) {
+        if (mFrameCache == null || mUri == null || positionMillis <= 0) {
+            return;
+        }
+        Bitmap frame = mRenderView.captureFrame(FrameCache.MAX_WIDTH);
+        if (frame != null) {
+            mFrameCache.put(mUri, positionMillis, frame);
+        } else {
+            mFrameCache.capture(mUri, mProxyCacheServer != null ? mProxyCacheServer.getProxyUri(mUri) : mUri, positionMillis);
+        }
+    }
+
+    /**
+     * 有这个位置的截图时盖在画面上,从头播放时不需要
+     */
+    private void showPoster(int positionMillis) {
+        final int request = ++mPosterRequest;
+        if (mFrameCache == null || positionMillis <= 0) {
+            return;
+        }
+        mFrameCache.load(mUri, positionMillis, new FrameCache.Callback() {
+            @Override
+            public void onFrameLoaded(Uri uri, int positionMillis, Bitmap frame) {
+                if (request == mPosterRequest && uri.equals(mUri)) {
+                    mPosterView.setImageBitmap(frame);
+                    mPosterView.setVisibility(VISIBLE);
+                }
+            }
+        });
+    }
+
+    private void hidePoster() {
+        mPosterRequest++;
+        if (mPosterView != null) {
+            mPosterView.setVisibility(GONE);
+            mPosterView.setImageBitmap(null);
+        }
+    }
+
+    /**
+     * 把当前视频的位置交给{@link PositionStore},快看完时删除
+     */
+    private void savePosition() {
+        if (mPositionStore == null || mUri == null || !isInPlaybackState()) {
+            return;
+        }
+        int position = mMediaPlayer.getCurrentPosition();
+        int duration = mMediaPlayer.getDuration();
+        if (duration > 0 && duration - position < FINISHED_MARGIN_MILLIS) {
+            position = 0;
+        }
+        mPositionStore.put(mUri, position);
+    }
+
+    /**
+     * TextureView模式下播放器没法控制屏幕常亮,由View自己处理;界面掉帧只在播放期间统计
+     */
+    private void onPlayingChanged(boolean playing) {
+        if (mLease != null) {
+            mLease.setIdle(!playing);
+        }
+        if (mRenderMode == RENDER_MODE_TEXTURE) {
+            setKeepScreenOn(playing);
+        }
+        if (playing) {
+            mRenderStats.startFrameMonitor();
+        } else {
+            mRenderStats.stopFrameMonitor();
+        }
+    }
+
+    private Runnable mSavePositionRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (isPlaying()) {
+                savePosition();
+                postDelayed(this, SAVE_POSITION_INTERVAL_MILLIS);
+            }
+        }
+    };
+
+    /**
+     * 在播放器线程释放当前播放器,快速切换模式下交给释放线程
+     *
+     * @param stop 是否先调用stop
+     */
+    private void releasePlayer(MediaPlayer mediaPlayer, boolean stop) {
+        detachPlayer();
+        if (mLease != null) {
+            mLease.release();
+            mLease = null;
+        }
+        if (mZapMode) {
+            mPlayerThread.releaseInBackground(mediaPlayer);
+        } else if (stop) {
+            mPlayerThread.stop(mediaPlayer);
+        } else {
+            mPlayerThread.release(mediaPlayer);
+        }
+    }
+
+    /**
+     * 当前播放器不再属于这个View,清掉和它相关的状态
+     */
+    private void detachPlayer() {
+        mMainHandler.removeCallbacks(mRetentionTimeoutRunnable);
+        mPlayerRetained = false;
+        mGeneration.incrementAndGet();
+        mSeekTracker.cancel();
+        mSeekIssuedTime = 0;
+        mPendingSeek = -1;
+    }
+
+    /**
+     * 暂停后把准备好的播放器放回{@link #setPlayerPool 播放器池},不释放,
+     * 再播放这个视频时直接接管,缓冲的数据和位置都还在.没有设置播放器池或者还没准备好时正常停止
+     */
+    void parkPlayer() {
+        if (mPlayerPool == null || !isInPlaybackState() || mLease == null) {
+            stopPlayback();
+            return;
+        }
+        pause();  //保存位置、截帧
+        savePosition();
+        endSuspend();
+        hidePoster();
+        releaseNextPlayer();
+        mQoeTracker.onStopped();
+        MediaPlayer mediaPlayer = mMediaPlayer;
+        mMediaPlayer = null;
+        detachPlayer();
+        mPlayerThread.detachDisplay(mediaPlayer);
+        mPlayerPool.put(mUri, mediaPlayer, mLease);
+        mLease = null;
+        mCurrentState = STATE_IDLE;
+        mTargetState = STATE_IDLE;
+        unpinCache();
+    }
+
     /**
      * 释放播放器
      *
      * @param clearTargetState 是否清除目标状态
      */
     private void release(boolean clearTargetState) {
+        if (clearTargetState) {
+            cancelPendingLease();
+        }
+        removeCallbacks(mSavePositionRunnable);
+        onPlayingChanged(false);
+        releaseNextPlayer();
+        mQoeTracker.onStopped();
         if (mMediaPlayer != null) {
-            mMediaPlayer.reset();
-            mMediaPlayer.release();
+            releasePlayer(mMediaPlayer, false);
             mMediaPlayer = null;
             mCurrentState = STATE_IDLE;
             if (clearTargetState) {
@@ -517,10 +1445,80 @@ public class UniversalVideoView extends SurfaceView
         }
     }
 
+    /**
+     * pause(false)之后进入挂起的下一个阶段,已经在这个阶段或者更后面时忽略
+     */
+    private void suspendTo(int tier) {
+        if (tier <= mSuspendTier) {
+            return;
+        }
+        if (mSuspendTier < 0) {
+            mContext.getApplicationContext().registerComponentCallbacks(mTrimMemoryCallbacks);
+        }
+        mSuspendTier = tier;
+        mMainHandler.removeCallbacks(mSuspendRunnable);
+        Log.d(TAG, "Suspend tier " + tier);
+        if (tier >= SuspendPolicy.TIER_METADATA) {
+            release(false);  //时长、画面大小和位置都还在,缓存也还固定着
+        }
+        if (tier >= SuspendPolicy.TIER_RELEASED) {
+            unpinCache();
+            mRenderView.releaseRetainedSurface();
+            if (mMediaController != null) {
+                mMediaController.setPreviewSource(null, null);  //重新打开时再设置
+            }
+            mContext.getApplicationContext().unregisterComponentCallbacks(mTrimMemoryCallbacks);
+            return;
+        }
+        mMainHandler.postDelayed(mSuspendRunnable, mSuspendPolicy.getTierMillis(tier));
+    }
+
+    /**
+     * 回到前台或者换了视频,停止挂起计时
+     */
+    private void endSuspend() {
+        if (mSuspendTier < 0) {
+            return;
+        }
+        if (mSuspendTier < SuspendPolicy.TIER_RELEASED) {
+            mContext.getApplicationContext().unregisterComponentCallbacks(mTrimMemoryCallbacks);
+        }
+        mSuspendTier = -1;
+        mMainHandler.removeCallbacks(mSuspendRunnable);
+    }
+
+    private Runnable mSuspendRunnable = new Runnable() {
+        @Override
+        public void run() {
+            suspendTo(mSuspendTier + 1);
+        }
+    };
+
+    private ComponentCallbacks2 mTrimMemoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            suspendTo(mSuspendPolicy.getTierForTrimLevel(level));
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            suspendTo(SuspendPolicy.TIER_RELEASED);
+        }
+    };
+
     /**
      * 恢复播放
      */
     public void rePlay() {
+        if ((mSuspendTier >= SuspendPolicy.TIER_METADATA || mEvicted) && mMediaPlayer == null) {
+            openVideo();  //播放器已经释放,重新打开,准备好后回到原来的位置接着播;还没有Surface时等Surface创建后打开
+            endSuspend();
+            return;
+        }
         if ((mCurrentState == STATE_PAUSED) && (mCurrentPosition > 0 && mCurrentPosition < mVideoDuring)) {
             start();
         }
@@ -528,6 +1526,12 @@ public class UniversalVideoView extends SurfaceView
 
     @Override
     public void start() {
+        endSuspend();
+        if (mEvicted && mMediaPlayer == null) {
+            mTargetState = STATE_PLAYING;
+            openVideo();  //播放器被收回了,重新打开,准备好后回到原来的位置接着播
+            return;
+        }
         if (!mPreparedBeforeStart && mMediaController != null) {
             Log.i(TAG, "------start:showLoading ");
             mMediaController.showLoading();
@@ -538,6 +1542,12 @@ public class UniversalVideoView extends SurfaceView
             Log.i(TAG, "-----isInPlaybackState" + isInPlaybackState());
             mMediaPlayer.start();
             mCurrentState = STATE_PLAYING;
+            mQoeTracker.onPlaying();
+            onPlayingChanged(true);
+            if (mPositionStore != null) {
+                removeCallbacks(mSavePositionRunnable);
+                postDelayed(mSavePositionRunnable, SAVE_POSITION_INTERVAL_MILLIS);
+            }
             if (this.mVideoPlayerCallback != null) {
                 this.mVideoPlayerCallback.onPlayerStart(mMediaPlayer);
             }
@@ -556,9 +1566,17 @@ public class UniversalVideoView extends SurfaceView
     public void pause(boolean normalPause) {
         if (isInPlaybackState()) {
             if (mMediaPlayer.isPlaying()) {
+                mQoeTracker.onStopped();
+                removeCallbacks(mSavePositionRunnable);
+                onPlayingChanged(false);
+                savePosition();
                 mCurrentPosition = getCurrentPosition();
+                captureFrame(mCurrentPosition);
                 if (normalPause) {
                     mMediaPlayer.pause();
+                } else if (mSuspendPolicy != null) {
+                    mMediaPlayer.pause();
+                    suspendTo(SuspendPolicy.TIER_PREPARED);
                 } else {
                     release(false);
                 }
@@ -592,14 +1610,80 @@ public class UniversalVideoView extends SurfaceView
         return 0;
     }
 
+    /**
+     * 精确定位到msec.上一次seek还没完成时先记下来,等完成后再执行,期间多次调用只执行最后一次
+     */
     @Override
     public void seekTo(int msec) {
-        if (isInPlaybackState()) {
-            mMediaPlayer.seekTo(msec);
-            mSeekWhenPrepared = 0;
-        } else {
+        seekTo(msec, true);
+    }
+
+    /**
+     * 拖动过程中实时定位:同一时间只有一个seek在执行,中间的位置合并成最新的一个;
+     * API 26以上定位到最近的关键帧,比精确定位快得多.松手时再调用{@link #seekTo(int)}精确定位
+     */
+    @Override
+    public void scrubTo(int msec) {
+        seekTo(msec, false);
+    }
+
+    private void seekTo(int msec, boolean precise) {
+        if (!isInPlaybackState()) {
             mSeekWhenPrepared = msec;
+            return;
+        }
+        mSeekWhenPrepared = 0;
+        if (mSeekIssuedTime != 0 && SystemClock.elapsedRealtime() - mSeekIssuedTime < SEEK_TIMEOUT_MILLIS) {
+            mPendingSeek = msec;
+            mPendingSeekPrecise = precise;
+            return;
         }
+        issueSeek(msec, precise);
+    }
+
+    private void issueSeek(int msec, boolean precise) {
+        mPendingSeek = -1;
+        mSeekIssuedTime = SystemClock.elapsedRealtime();
+        mQoeTracker.onSeek();
+        mSeekTracker.onSeekStarted(msec >= mMediaPlayer.getCurrentPosition(), isBuffered(msec));
+        Method seekToWithMode = precise ? null : getSeekToWithMode();
+        if (seekToWithMode != null) {
+            try {
+                seekToWithMode.invoke(mMediaPlayer, (long) msec, SEEK_CLOSEST_SYNC);
+                return;
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                Log.w(TAG, "Error seeking to closest sync frame", e);
+            }
+        }
+        mMediaPlayer.seekTo(msec);
+    }
+
+    /**
+     * compileSdkVersion还没有带模式的seekTo,只能反射调用
+     */
+    private Method getSeekToWithMode() {
+        if (!sSeekToWithModeResolved) {
+            sSeekToWithModeResolved = true;
+            if (Build.VERSION.SDK_INT >= 26) {
+                try {
+                    sSeekToWithMode = MediaPlayer.class.getMethod("seekTo", long.class, int.class);
+                } catch (NoSuchMethodException e) {
+                    Log.w(TAG, "No seekTo(long, int)", e);
+                }
+            }
+        }
+        return sSeekToWithMode;
+    }
+
+    /**
+     * 目标位置是否已经在本地:整个视频已经缓存,或者在MediaPlayer报告的缓冲进度之内
+     */
+    private boolean isBuffered(int msec) {
+        if (mProxyCacheServer != null && mProxyCacheServer.isCached(mUri.toString())) {
+            return true;
+        }
+        int duration = mMediaPlayer.getDuration();
+        return duration > 0 && msec <= (long) duration * mCurrentBufferPercentage / 100;
     }
 
     @Override
@@ -644,7 +1728,17 @@ public class UniversalVideoView extends SurfaceView
 
     @Override
     public void closePlayer() {
+        savePosition();
         release(true);
+        mRenderView.releaseRetainedSurface();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (mMediaPlayer == null) {
+            mRenderView.releaseRetainedSurface();  //没有在播放,不用保留
+        }
     }
 
     @Override
@@ -686,14 +1780,27 @@ public class UniversalVideoView extends SurfaceView
         this.mVideoPlayerCallback = callback;
     }
 
+    public void setPlaylistItemChangeListener(PlaylistItemChangeListener listener) {
+        this.mPlaylistItemChangeListener = listener;
+    }
+
+    public void setSeekCompleteListener(SeekCompleteListener listener) {
+        this.mSeekCompleteCallback = listener;
+    }
+
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
         if (mFitXY) {
             onMeasureFitXY(widthMeasureSpec, heightMeasureSpec);
         } else {
             onMeasureKeepAspectRatio(widthMeasureSpec, heightMeasureSpec);
         }
+        //显示画面的View铺满测量出来的大小
+        int childWidthMeasureSpec = MeasureSpec.makeMeasureSpec(getMeasuredWidth(), MeasureSpec.EXACTLY);
+        int childHeightMeasureSpec = MeasureSpec.makeMeasureSpec(getMeasuredHeight(), MeasureSpec.EXACTLY);
+        for (int i = 0; i < getChildCount(); i++) {
+            getChildAt(i).measure(childWidthMeasureSpec, childHeightMeasureSpec);
+        }
     }
 
     private void onMeasureFitXY(int widthMeasureSpec, int heightMeasureSpec) {
@@ -0,0 +1,37 @@
+package com.infinite.simpleplayer.cache;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 同一个视频的多个连接之间协调下载:每一块同一时间只有一个下载任务从源站下载,
+ * 其它连接等这一块写入缓存后直接从磁盘读.认领用CAS,不加锁
+ */
+class BlockClaims {
+
+    private static final int FREE = 0;
+    private static final int CLAIMED = 1;
+
+    private final AtomicIntegerArray mClaims;
+
+    BlockClaims(int blockCount) {
+        mClaims = new AtomicIntegerArray(blockCount);
+    }
+
+    /**
+     * @return 认领成功的由调用者负责下载,完成或放弃后必须调用{@link #release(int)}
+     */
+    boolean tryClaim(int block) {
+        return mClaims.compareAndSet(block, FREE, CLAIMED);
+    }
+
+    boolean isClaimed(int block) {
+        return mClaims.get(block) == CLAIMED;
+    }
+
+    /**
+     * 放弃认领或者已经写入缓存
+     */
+    void release(int block) {
+        mClaims.set(block, FREE);
+    }
+}
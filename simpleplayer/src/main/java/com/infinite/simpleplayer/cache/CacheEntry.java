@@ -0,0 +1,58 @@
+package com.infinite.simpleplayer.cache;
+
+/**
+ * 缓存中的一个视频,供{@link EvictionPolicy}挑选淘汰对象
+ */
+public class CacheEntry {
+
+    final String mKey;
+    long mSize;
+    long mLastAccessTime;
+    int mAccessCount;
+    int mPinCount;
+    int mInUseCount;
+    boolean mCompleted;
+
+    CacheEntry(String key, long size, long lastAccessTime) {
+        mKey = key;
+        mSize = size;
+        mLastAccessTime = lastAccessTime;
+    }
+
+    /**
+     * @return 缓存文件名,即url的md5
+     */
+    public String getKey() {
+        return mKey;
+    }
+
+    /**
+     * @return 已缓存的字节数
+     */
+    public long getSize() {
+        return mSize;
+    }
+
+    public long getLastAccessTime() {
+        return mLastAccessTime;
+    }
+
+    public int getAccessCount() {
+        return mAccessCount;
+    }
+
+    /**
+     * @return 是否已经完整缓存
+     */
+    public boolean isCompleted() {
+        return mCompleted;
+    }
+
+    public boolean isPinned() {
+        return mPinCount > 0;
+    }
+
+    boolean isEvictable() {
+        return mPinCount <= 0 && mInUseCount <= 0;
+    }
+}
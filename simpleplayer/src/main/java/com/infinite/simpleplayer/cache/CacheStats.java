@@ -0,0 +1,90 @@
+package com.infinite.simpleplayer.cache;
+
+import java.util.Locale;
+
+/**
+ * 缓存统计的快照,用来按机型调整缓存容量
+ */
+public class CacheStats {
+
+    private final long mRequestCount;
+    private final long mHitCount;
+    private final long mBytesFromCache;
+    private final long mBytesFromOrigin;
+    private final long mEvictionCount;
+    private final long mEvictedBytes;
+    private final long mSize;
+    private final long mMaxSize;
+
+    CacheStats(long requestCount, long hitCount, long bytesFromCache, long bytesFromOrigin,
+               long evictionCount, long evictedBytes, long size, long maxSize) {
+        mRequestCount = requestCount;
+        mHitCount = hitCount;
+        mBytesFromCache = bytesFromCache;
+        mBytesFromOrigin = bytesFromOrigin;
+        mEvictionCount = evictionCount;
+        mEvictedBytes = evictedBytes;
+        mSize = size;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * @return MediaPlayer发来的请求数
+     */
+    public long getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * @return 起始位置已经缓存的请求数
+     */
+    public long getHitCount() {
+        return mHitCount;
+    }
+
+    public double getHitRatio() {
+        return mRequestCount == 0 ? 0 : (double) mHitCount / mRequestCount;
+    }
+
+    public long getBytesFromCache() {
+        return mBytesFromCache;
+    }
+
+    public long getBytesFromOrigin() {
+        return mBytesFromOrigin;
+    }
+
+    /**
+     * @return 从缓存发出的字节占比
+     */
+    public double getByteHitRatio() {
+        long total = mBytesFromCache + mBytesFromOrigin;
+        return total == 0 ? 0 : (double) mBytesFromCache / total;
+    }
+
+    public long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public long getEvictedBytes() {
+        return mEvictedBytes;
+    }
+
+    /**
+     * @return 当前占用的磁盘空间
+     */
+    public long getSize() {
+        return mSize;
+    }
+
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "CacheStats{requests=%d, hitRatio=%.3f, fromCache=%d, fromOrigin=%d, "
+                        + "evictions=%d, evictedBytes=%d, size=%d/%d}", mRequestCount, getHitRatio(),
+                mBytesFromCache, mBytesFromOrigin, mEvictionCount, mEvictedBytes, mSize, mMaxSize);
+    }
+}
@@ -0,0 +1,16 @@
+package com.infinite.simpleplayer.cache;
+
+import java.util.List;
+
+/**
+ * 缓存超出容量时决定先删哪个视频
+ */
+public interface EvictionPolicy {
+
+    /**
+     * @param candidates 可以删除的缓存,不包含固定的和正在播放的,不为空
+     * @param now        当前时间
+     * @return 要删除的缓存
+     */
+    CacheEntry selectVictim(List<CacheEntry> candidates, long now);
+}
@@ -0,0 +1,49 @@
+package com.infinite.simpleplayer.cache;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * MediaPlayer发给本地代理的GET请求
+ */
+class GetRequest {
+
+    private static final Pattern RANGE_HEADER_PATTERN = Pattern.compile("[R,r]ange:[ ]?bytes=(\\d*)-(\\d*)");
+    private static final Pattern URL_PATTERN = Pattern.compile("GET /(.*) HTTP");
+
+    final String uri;
+    final long rangeOffset;
+    final long rangeEnd;  // 包含在内的最后一个字节,没有指定时为-1,表示到文件末尾
+    final boolean partial;
+
+    GetRequest(String request) {
+        long offset = -1;
+        long end = -1;
+        Matcher matcher = RANGE_HEADER_PATTERN.matcher(request);
+        if (matcher.find()) {
+            offset = parseRangeValue(matcher.group(1));
+            end = offset < 0 ? -1 : parseRangeValue(matcher.group(2));
+        }
+        this.rangeOffset = Math.max(0, offset);
+        this.rangeEnd = end >= offset ? end : -1;  // 结尾在开始之前的范围无效,当作到文件末尾
+        this.partial = offset >= 0;
+        this.uri = findUri(request);
+    }
+
+    private long parseRangeValue(String rangeValue) {
+        return rangeValue.isEmpty() ? -1 : Long.parseLong(rangeValue);
+    }
+
+    private String findUri(String request) {
+        Matcher matcher = URL_PATTERN.matcher(request);
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        throw new IllegalArgumentException("Invalid request `" + request + "`: url not found!");
+    }
+
+    @Override
+    public String toString() {
+        return "GetRequest{rangeOffset=" + rangeOffset + ", rangeEnd=" + rangeEnd + ", partial=" + partial + ", uri='" + uri + "'}";
+    }
+}
@@ -0,0 +1,345 @@
+package com.infinite.simpleplayer.cache;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 本地回环代理:MediaPlayer请求本地端口,代理一边从源站下载一边写入磁盘缓存,
+ * 已经缓存的部分直接从磁盘读取,重播和回拖都不会再次下载.
+ * <p>
+ * 所有连接都由一个selector线程用非阻塞socket处理,源站下载在固定大小的线程池里执行,
+ * 不管有多少个播放器、多少个连接,线程数都不变.
+ * <p>
+ * 应用内只需要一个实例,用法:
+ * <pre>
+ * HttpProxyCacheServer proxy = new HttpProxyCacheServer(context);
+ * videoView.setProxyCacheServer(proxy);
+ * videoView.prefetch(nextUri);  // 预加载下一个视频的开头
+ * </pre>
+ */
+public class HttpProxyCacheServer {
+
+    private static final String TAG = "HttpProxyCacheServer";
+    private static final String PROXY_HOST = "127.0.0.1";
+    private static final String CACHE_DIR_NAME = "video-cache";
+    private static final long DEFAULT_MAX_CACHE_SIZE = 512 * 1024 * 1024;
+    private static final int DOWNLOAD_THREADS = 3;
+
+    private final ExecutorService mDownloadExecutor = Executors.newFixedThreadPool(DOWNLOAD_THREADS);
+    private final ConcurrentMap<String, ProxyCache> mClientsMap = new ConcurrentHashMap<>();
+    private final Queue<ProxyCache> mProgressQueue = new ConcurrentLinkedQueue<>();
+    private final Set<ProxyConnection> mConnections = new HashSet<>();  // 只在selector线程访问
+    private final Selector mSelector;
+    private final ServerSocketChannel mServerChannel;
+    private final int mPort;
+    private final Thread mSelectorThread;
+    private final File mCacheRoot;
+    private final VideoCacheStore mCacheStore;
+    private final VideoPrefetcher mPrefetcher;
+    private volatile boolean mShutdown;
+
+    public HttpProxyCacheServer(Context context) {
+        this(getDefaultCacheDir(context), DEFAULT_MAX_CACHE_SIZE, new LruEvictionPolicy());
+    }
+
+    /**
+     * @param maxCacheSize 缓存最多占用的磁盘空间
+     */
+    public HttpProxyCacheServer(Context context, long maxCacheSize) {
+        this(getDefaultCacheDir(context), maxCacheSize, new LruEvictionPolicy());
+    }
+
+    public HttpProxyCacheServer(File cacheRoot, long maxCacheSize, EvictionPolicy policy) {
+        mCacheRoot = cacheRoot;
+        mCacheStore = new VideoCacheStore(cacheRoot, maxCacheSize, policy);
+        mPrefetcher = new VideoPrefetcher(mConnectionHost);
+        try {
+            InetAddress inetAddress = InetAddress.getByName(PROXY_HOST);
+            mSelector = Selector.open();
+            mServerChannel = ServerSocketChannel.open();
+            mServerChannel.socket().bind(new InetSocketAddress(inetAddress, 0), 16);
+            mServerChannel.configureBlocking(false);
+            mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+            mPort = mServerChannel.socket().getLocalPort();
+            mSelectorThread = new Thread(new SelectorRunnable(), "Proxy selector");
+            mSelectorThread.start();
+            Log.i(TAG, "Proxy cache server started on port " + mPort);
+        } catch (IOException e) {
+            mDownloadExecutor.shutdown();
+            mPrefetcher.shutdown();
+            mCacheStore.shutdown();
+            throw new IllegalStateException("Error starting local proxy server", e);
+        }
+    }
+
+    private static File getDefaultCacheDir(Context context) {
+        File cacheDir = context.getExternalCacheDir();
+        if (cacheDir == null) {
+            cacheDir = context.getCacheDir();
+        }
+        return new File(cacheDir, CACHE_DIR_NAME);
+    }
+
+    /**
+     * 获取代理后的地址,只代理http/https,其它地址原样返回
+     */
+    public Uri getProxyUri(Uri uri) {
+        if (!isProxyScheme(uri)) {
+            return uri;
+        }
+        return Uri.parse(getProxyUrl(uri.toString()));
+    }
+
+    private static boolean isProxyScheme(Uri uri) {
+        String scheme = uri.getScheme();
+        return "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme);
+    }
+
+    public String getProxyUrl(String url) {
+        return String.format(Locale.US, "http://%s:%d/%s", PROXY_HOST, mPort, ProxyCacheUtils.encode(url));
+    }
+
+    /**
+     * 视频是否已经完整缓存.只查内存里的记录,不打开缓存文件,拖动进度时可以在主线程频繁调用
+     */
+    public boolean isCached(String url) {
+        return mCacheStore.isCompleted(ProxyCacheUtils.computeMD5(url));
+    }
+
+    /**
+     * 缓存容量管理,可以固定视频不被淘汰、查看命中率等统计
+     */
+    public VideoCacheStore getCacheStore() {
+        return mCacheStore;
+    }
+
+    /**
+     * 固定视频不被淘汰,比如正在播放或者即将播放的视频
+     */
+    public void pin(Uri uri) {
+        mCacheStore.pin(uri.toString());
+    }
+
+    public void unpin(Uri uri) {
+        mCacheStore.unpin(uri.toString());
+    }
+
+    /**
+     * 预加载视频开头bytes字节和moov,之后播放这个视频时直接从本地开始.只预加载http/https
+     */
+    public void prefetch(Uri uri, long bytes) {
+        if (isProxyScheme(uri)) {
+            mPrefetcher.prefetchBytes(uri.toString(), bytes);
+        }
+    }
+
+    /**
+     * 预加载视频开头millis毫秒和moov,字节数按视频的平均码率估算
+     */
+    public void prefetchDuration(Uri uri, long millis) {
+        if (isProxyScheme(uri)) {
+            mPrefetcher.prefetchMillis(uri.toString(), millis);
+        }
+    }
+
+    /**
+     * 取消预加载,已经下载的部分保留在缓存里
+     */
+    public void cancelPrefetch(Uri uri) {
+        mPrefetcher.cancel(uri.toString());
+    }
+
+    public void cancelAllPrefetches() {
+        mPrefetcher.cancelAll();
+    }
+
+    public void shutdown() {
+        Log.i(TAG, "Shutdown proxy server");
+        mShutdown = true;
+        mPrefetcher.shutdown();
+        mSelector.wakeup();
+        for (ProxyCache proxyCache : mClientsMap.values()) {
+            proxyCache.shutdown();
+        }
+        mClientsMap.clear();
+        mDownloadExecutor.shutdownNow();
+        mCacheStore.shutdown();
+    }
+
+    private void runSelectorLoop() {
+        try {
+            while (!mShutdown) {
+                mSelector.select();
+                dispatchCacheProgress();
+                Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        acceptConnection();
+                    } else {
+                        handleConnection(key);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            Log.e(TAG, "Error in proxy selector loop", e);
+        } finally {
+            for (ProxyConnection connection : new HashSet<>(mConnections)) {
+                connection.close();
+            }
+            mConnections.clear();
+            ProxyCacheUtils.close(mServerChannel);
+            try {
+                mSelector.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing selector", e);
+            }
+        }
+    }
+
+    private void acceptConnection() throws IOException {
+        SocketChannel channel = mServerChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        SelectionKey key = channel.register(mSelector, SelectionKey.OP_READ);
+        ProxyConnection connection = new ProxyConnection(channel, key, mConnectionHost);
+        key.attach(connection);
+        mConnections.add(connection);
+    }
+
+    private void handleConnection(SelectionKey key) {
+        ProxyConnection connection = (ProxyConnection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                connection.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.onWritable();
+            }
+        } catch (IOException e) {
+            // MediaPlayer经常主动断开连接(比如seek),不算错误
+            Log.d(TAG, "Closing connection: " + e.getMessage());
+            connection.close();
+        } catch (ProxyCacheException | RuntimeException e) {
+            Log.e(TAG, "Error processing request", e);
+            connection.close();
+        }
+        if (connection.isClosed()) {
+            mConnections.remove(connection);
+        }
+    }
+
+    /**
+     * 把下载线程的通知转给等待中的连接
+     */
+    private void dispatchCacheProgress() {
+        ProxyCache proxyCache;
+        Set<ProxyCache> updated = null;
+        while ((proxyCache = mProgressQueue.poll()) != null) {
+            if (updated == null) {
+                updated = new HashSet<>();
+            }
+            updated.add(proxyCache);
+        }
+        if (updated == null) {
+            return;
+        }
+        Iterator<ProxyConnection> iterator = mConnections.iterator();
+        while (iterator.hasNext()) {
+            ProxyConnection connection = iterator.next();
+            if (connection.isWaiting() && updated.contains(connection.getProxyCache())) {
+                try {
+                    connection.onCacheProgress();
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, "Error resuming connection", e);
+                    connection.close();
+                }
+            }
+            if (connection.isClosed()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 同一个url的所有连接共用一个{@link ProxyCache},不加全局锁
+     */
+    private ProxyCache acquireProxyCache(String url) {
+        while (true) {
+            ProxyCache proxyCache = mClientsMap.get(url);
+            if (proxyCache == null) {
+                ProxyCache newProxyCache = new ProxyCache(url, mCacheRoot, mCacheStore, mDownloadExecutor,
+                        mProgressListener);
+                proxyCache = mClientsMap.putIfAbsent(url, newProxyCache);
+                if (proxyCache == null) {
+                    proxyCache = newProxyCache;
+                }
+            }
+            if (proxyCache.tryAcquire()) {
+                return proxyCache;
+            }
+            mClientsMap.remove(url, proxyCache);  // 刚好被关闭了,重新创建
+        }
+    }
+
+    private void releaseProxyCache(ProxyCache proxyCache) {
+        if (proxyCache.release()) {
+            mClientsMap.remove(proxyCache.getUrl(), proxyCache);
+        }
+    }
+
+    private ProxyCache.Listener mProgressListener = new ProxyCache.Listener() {
+        @Override
+        public void onCacheProgress(ProxyCache proxyCache) {
+            mProgressQueue.offer(proxyCache);
+            mSelector.wakeup();
+        }
+    };
+
+    private ProxyConnection.Host mConnectionHost = new ProxyConnection.Host() {
+        @Override
+        public ProxyCache acquireProxyCache(String url) {
+            return HttpProxyCacheServer.this.acquireProxyCache(url);
+        }
+
+        @Override
+        public void releaseProxyCache(ProxyCache proxyCache) {
+            HttpProxyCacheServer.this.releaseProxyCache(proxyCache);
+        }
+    };
+
+    private final class SelectorRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            runSelectorLoop();
+        }
+    }
+}
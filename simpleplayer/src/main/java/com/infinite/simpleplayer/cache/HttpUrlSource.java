@@ -0,0 +1,143 @@
+package com.infinite.simpleplayer.cache;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
+
+/**
+ * 从源站读取视频数据,支持从指定偏移处开始读(Range请求)
+ */
+class HttpUrlSource {
+
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 15000;
+
+    private final String mUrl;
+    private HttpURLConnection mConnection;
+    private InputStream mInputStream;
+    private volatile long mLength = -1;
+    private volatile String mMime;
+
+    HttpUrlSource(String url) {
+        this.mUrl = url;
+    }
+
+    /**
+     * 只请求第一个字节,从Content-Range中拿到资源总长度和类型
+     */
+    void fetchContentInfo() throws ProxyCacheException {
+        HttpURLConnection connection = null;
+        InputStream inputStream = null;
+        try {
+            connection = openConnection(0, 1);
+            int code = connection.getResponseCode();
+            if (code == HTTP_PARTIAL) {
+                mLength = parseTotalLength(connection.getHeaderField("Content-Range"));
+            } else if (code == HTTP_OK) {
+                mLength = readContentLength(connection);
+            } else {
+                throw new ProxyCacheException("Unexpected response code " + code + " for " + mUrl);
+            }
+            mMime = connection.getContentType();
+            inputStream = connection.getInputStream();
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error fetching info from " + mUrl, e);
+        } finally {
+            ProxyCacheUtils.close(inputStream);
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private long parseTotalLength(String contentRange) {
+        // bytes 0-0/12345
+        int slash = contentRange == null ? -1 : contentRange.lastIndexOf('/');
+        if (slash < 0 || "*".equals(contentRange.substring(slash + 1).trim())) {
+            return -1;
+        }
+        return Long.parseLong(contentRange.substring(slash + 1).trim());
+    }
+
+    private HttpURLConnection openConnection(long offset, long end) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(mUrl).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        if (offset > 0 || end > 0) {
+            connection.setRequestProperty("Range", "bytes=" + offset + "-" + (end > 0 ? String.valueOf(end - 1) : ""));
+        }
+        return connection;
+    }
+
+    /**
+     * 打开连接
+     *
+     * @param offset 起始偏移
+     * @param end    结束偏移(不包含),小于等于0表示读到结尾
+     */
+    void open(long offset, long end) throws ProxyCacheException {
+        try {
+            mConnection = openConnection(offset, end);
+            int code = mConnection.getResponseCode();
+            if (code != HTTP_OK && code != HTTP_PARTIAL) {
+                throw new ProxyCacheException("Unexpected response code " + code + " for " + mUrl);
+            }
+            if (offset > 0 && code != HTTP_PARTIAL) {
+                throw new ProxyCacheException("Origin ignored range request for " + mUrl);
+            }
+            if (code == HTTP_OK) {
+                mLength = readContentLength(mConnection);
+            } else if (mLength < 0) {
+                mLength = parseTotalLength(mConnection.getHeaderField("Content-Range"));
+            }
+            mMime = mConnection.getContentType();
+            mInputStream = new BufferedInputStream(mConnection.getInputStream(), ProxyCacheUtils.DEFAULT_BUFFER_SIZE);
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error opening connection for " + mUrl + " with offset " + offset, e);
+        }
+    }
+
+    private long readContentLength(HttpURLConnection connection) {
+        String contentLengthValue = connection.getHeaderField("Content-Length");
+        return contentLengthValue == null || contentLengthValue.isEmpty() ? -1 : Long.parseLong(contentLengthValue);
+    }
+
+    /**
+     * @return 资源总长度,未知时返回-1
+     */
+    long length() {
+        return mLength;
+    }
+
+    String getMime() {
+        return mMime == null || mMime.isEmpty() ? "video/mp4" : mMime;
+    }
+
+    int read(byte[] buffer) throws ProxyCacheException {
+        if (mInputStream == null) {
+            throw new ProxyCacheException("Error reading data from " + mUrl + ": connection is absent!");
+        }
+        try {
+            return mInputStream.read(buffer, 0, buffer.length);
+        } catch (InterruptedIOException e) {
+            throw new ProxyCacheException("Reading source " + mUrl + " is interrupted", e);
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error reading data from " + mUrl, e);
+        }
+    }
+
+    void close() {
+        ProxyCacheUtils.close(mInputStream);
+        mInputStream = null;
+        if (mConnection != null) {
+            mConnection.disconnect();
+            mConnection = null;
+        }
+    }
+}
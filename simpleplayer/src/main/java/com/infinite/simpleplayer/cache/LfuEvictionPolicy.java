@@ -0,0 +1,22 @@
+package com.infinite.simpleplayer.cache;
+
+import java.util.List;
+
+/**
+ * 删除访问次数最少的,次数相同时删除最久没有访问的
+ */
+public class LfuEvictionPolicy implements EvictionPolicy {
+
+    @Override
+    public CacheEntry selectVictim(List<CacheEntry> candidates, long now) {
+        CacheEntry victim = candidates.get(0);
+        for (CacheEntry entry : candidates) {
+            if (entry.getAccessCount() < victim.getAccessCount()
+                    || (entry.getAccessCount() == victim.getAccessCount()
+                    && entry.getLastAccessTime() < victim.getLastAccessTime())) {
+                victim = entry;
+            }
+        }
+        return victim;
+    }
+}
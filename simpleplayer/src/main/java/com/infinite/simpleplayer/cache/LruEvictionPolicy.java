@@ -0,0 +1,20 @@
+package com.infinite.simpleplayer.cache;
+
+import java.util.List;
+
+/**
+ * 删除最久没有访问的
+ */
+public class LruEvictionPolicy implements EvictionPolicy {
+
+    @Override
+    public CacheEntry selectVictim(List<CacheEntry> candidates, long now) {
+        CacheEntry victim = candidates.get(0);
+        for (CacheEntry entry : candidates) {
+            if (entry.getLastAccessTime() < victim.getLastAccessTime()) {
+                victim = entry;
+            }
+        }
+        return victim;
+    }
+}
@@ -0,0 +1,392 @@
+package com.infinite.simpleplayer.cache;
+
+import android.util.Log;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 单个视频的代理缓存:没缓存的空洞按块对齐从源站补齐,写入{@link SparseFileCache}.
+ * 同一个视频的所有连接共用一个实例,每块只会由一个下载任务下载,
+ * 下载在固定大小的线程池里执行,每写完一块通过{@link Listener}通知连接继续发送.
+ */
+class ProxyCache {
+
+    private static final String TAG = "ProxyCache";
+    private static final int MAX_CLAIM_BLOCKS = 32;  // 一次最多认领的块数,连接最多领先播放位置这么多
+    private static final int CLOSED = -1;
+    private static final long PROGRESS_WAIT_MILLIS = 500;
+
+    interface Listener {
+
+        /**
+         * 长度查询完成、有新的块写入或者下载失败时回调,在下载或预加载线程执行
+         */
+        void onCacheProgress(ProxyCache proxyCache);
+    }
+
+    private final String mUrl;
+    private final File mCacheRoot;
+    private final String mCacheName;
+    private final AtomicInteger mClientsCount = new AtomicInteger(0);
+    private final AtomicBoolean mResolving = new AtomicBoolean();
+    private final Object mResolveLock = new Object();
+    private final Object mProgressLock = new Object();
+    private final VideoCacheStore mStore;
+    private final Executor mDownloadExecutor;
+    private final Listener mListener;
+    private volatile SparseFileCache mCache;
+    private volatile BlockClaims mClaims;
+    private volatile AtomicIntegerArray mFailures;  // 每一块下载失败的次数
+    private volatile boolean mResolved;
+    private volatile String mSourceMime;
+    private volatile boolean mStopped;
+
+    ProxyCache(String url, File cacheRoot, VideoCacheStore store, Executor downloadExecutor, Listener listener) {
+        this.mUrl = url;
+        this.mCacheRoot = cacheRoot;
+        this.mCacheName = ProxyCacheUtils.computeMD5(url);
+        this.mStore = store;
+        this.mDownloadExecutor = downloadExecutor;
+        this.mListener = listener;
+    }
+
+    String getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * 增加一个客户端
+     *
+     * @return 已经关闭时返回false,需要重新创建实例
+     */
+    boolean tryAcquire() {
+        while (true) {
+            int count = mClientsCount.get();
+            if (count == CLOSED) {
+                return false;
+            }
+            if (mClientsCount.compareAndSet(count, count + 1)) {
+                if (count == 0) {
+                    mStore.acquire(mCacheName);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 减少一个客户端
+     *
+     * @return 最后一个客户端离开、实例被关闭时返回true
+     */
+    boolean release() {
+        if (mClientsCount.decrementAndGet() == 0 && mClientsCount.compareAndSet(0, CLOSED)) {
+            shutdown();
+            mStore.release(mCacheName);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 缓存是否已经打开.打开之后{@link #getCache()}为空表示源站没有返回长度,无法缓存
+     */
+    boolean isResolved() {
+        return mResolved;
+    }
+
+    SparseFileCache getCache() {
+        return mCache;
+    }
+
+    void onRequest(boolean hit) {
+        mStore.onRequest(hit);
+    }
+
+    /**
+     * 连接发出的、不需要等待下载的字节数
+     */
+    void onBytesServedFromCache(long bytes) {
+        mStore.onBytesServed(true, bytes);
+    }
+
+    /**
+     * 连接发出的、等这次下载才拿到的字节数.预加载和提前下载的数据没人读时不算
+     */
+    void onBytesServedFromOrigin(long bytes) {
+        mStore.onBytesServed(false, bytes);
+    }
+
+    /**
+     * 在下载线程里打开已有缓存,没有就向源站查询长度后新建,完成后回调{@link Listener}
+     */
+    void resolveAsync() {
+        if (mResolved || !mResolving.compareAndSet(false, true)) {
+            return;
+        }
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                resolveNow();
+            }
+        });
+    }
+
+    /**
+     * 在调用线程打开缓存,已经打开过直接返回
+     */
+    void resolveNow() {
+        synchronized (mResolveLock) {
+            if (mResolved) {
+                return;
+            }
+            try {
+                resolve();
+            } catch (ProxyCacheException e) {
+                Log.e(TAG, "Error opening cache for " + mUrl, e);
+                mStopped = true;
+            } finally {
+                mResolved = true;
+                notifyProgress();
+            }
+        }
+    }
+
+    private void resolve() throws ProxyCacheException {
+        SparseFileCache cache = SparseFileCache.open(mCacheRoot, mCacheName);
+        if (cache == null && !mStopped) {
+            HttpUrlSource source = new HttpUrlSource(mUrl);
+            source.fetchContentInfo();
+            mSourceMime = source.getMime();
+            if (source.length() > 0) {
+                cache = SparseFileCache.create(mCacheRoot, mCacheName, source.length(), mSourceMime);
+            } else {
+                Log.w(TAG, "Unknown content length, skip caching " + mUrl);
+            }
+        }
+        if (cache != null) {
+            if (cache.isCompleted()) {
+                mStore.onCompleted(mCacheName);
+            }
+            mClaims = new BlockClaims(cache.blockCount());
+            mFailures = new AtomicIntegerArray(cache.blockCount());
+            mCache = cache;
+        }
+    }
+
+    /**
+     * 连接读到了没缓存的块.认领成功就提交下载任务,否则已经有别的任务在下载,等通知即可
+     *
+     * @param limit     最多下载到这一块(不包含),不超过连接请求的范围
+     * @param cancelled 连接断开时置位,没下载完的块交给后面的请求
+     * @return 这次下载的结束块(不包含),没有提交下载时返回block + 1
+     */
+    int requestBlock(int block, int limit, final AtomicBoolean cancelled) {
+        final int firstBlock = block;
+        final int endBlock = claimBlocks(block, limit);
+        if (endBlock == block) {
+            return block + 1;
+        }
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                downloadBlocks(firstBlock, endBlock, cancelled);
+            }
+        });
+        return endBlock;
+    }
+
+    /**
+     * 在调用线程下载[offset, end)里没缓存的块,别的任务正在下载的块等它下载完,用于预加载
+     *
+     * @param cancelled 置位后尽快返回
+     * @return 这段是否已经全部缓存
+     */
+    boolean prefetch(long offset, long end, AtomicBoolean cancelled) {
+        SparseFileCache cache = mCache;
+        if (cache == null) {
+            return false;
+        }
+        end = Math.min(end, cache.length());
+        if (offset >= end) {
+            return true;
+        }
+        int block = cache.blockOf(offset);
+        int lastBlock = cache.blockOf(end - 1) + 1;
+        while (!mStopped && !cancelled.get()) {
+            while (block < lastBlock && cache.isBlockCached(block)) {
+                block++;
+            }
+            if (block == lastBlock) {
+                return true;
+            }
+            int endBlock = claimBlocks(block, lastBlock);
+            if (endBlock > block) {
+                if (!downloadBlocks(block, endBlock, cancelled)) {
+                    return false;
+                }
+            } else if (!awaitBlock(block)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 从block开始认领连续没缓存的块,最多到limit(不包含)
+     *
+     * @return 认领到的结束块(不包含),没有认领到时返回block
+     */
+    private int claimBlocks(int block, int limit) {
+        SparseFileCache cache = mCache;
+        if (cache == null || mStopped || !mClaims.tryClaim(block)) {
+            return block;
+        }
+        if (cache.isBlockCached(block)) {
+            mClaims.release(block);  // 认领前刚被别的任务写完
+            notifyProgress();
+            return block;
+        }
+        int maxBlock = Math.min(Math.min(cache.blockCount(), limit), block + MAX_CLAIM_BLOCKS);
+        int endBlock = block + 1;
+        while (endBlock < maxBlock && !cache.isBlockCached(endBlock) && mClaims.tryClaim(endBlock)) {
+            endBlock++;
+        }
+        return endBlock;
+    }
+
+    /**
+     * 等别的任务下载完block
+     *
+     * @return 被中断时返回false
+     */
+    private boolean awaitBlock(int block) {
+        synchronized (mProgressLock) {
+            if (mClaims.isClaimed(block)) {
+                try {
+                    mProgressLock.wait(PROGRESS_WAIT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void notifyProgress() {
+        mListener.onCacheProgress(this);
+        synchronized (mProgressLock) {
+            mProgressLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return block下载失败的次数.连接发现等待期间增加了就断开,让MediaPlayer报错或重试,而不是无限重试源站
+     */
+    int getDownloadFailures(int block) {
+        return mFailures.get(block);
+    }
+
+    /**
+     * @return 已经关闭,或者打开缓存失败
+     */
+    boolean isStopped() {
+        return mStopped;
+    }
+
+    private void submit(Runnable task) {
+        try {
+            mDownloadExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Download executor is shut down, drop task for " + mUrl);
+        }
+    }
+
+    /**
+     * 下载已认领的[firstBlock, endBlock)
+     *
+     * @return 是否下载成功
+     */
+    private boolean downloadBlocks(int firstBlock, int endBlock, AtomicBoolean cancelled) {
+        SparseFileCache cache = mCache;
+        try {
+            fetchBlocks(cache, firstBlock, endBlock, cancelled);
+            return !cancelled.get();
+        } catch (ProxyCacheException e) {
+            if (!mStopped) {
+                Log.e(TAG, "Error downloading blocks [" + firstBlock + ", " + endBlock + ") of " + mUrl, e);
+            }
+            for (int block = firstBlock; block < endBlock; block++) {
+                if (!cache.isBlockCached(block)) {
+                    mFailures.incrementAndGet(block);  // 只影响等这几块的连接
+                }
+            }
+            return false;
+        } finally {
+            for (int block = firstBlock; block < endBlock; block++) {
+                if (!cache.isBlockCached(block)) {
+                    mClaims.release(block);  // 没下载完的交给后面的请求
+                }
+            }
+            notifyProgress();
+        }
+    }
+
+    private void fetchBlocks(SparseFileCache cache, int firstBlock, int endBlock, AtomicBoolean cancelled)
+            throws ProxyCacheException {
+        long position = cache.blockStart(firstBlock);
+        long end = cache.blockEnd(endBlock - 1);
+        int block = firstBlock;
+        HttpUrlSource source = new HttpUrlSource(mUrl);
+        try {
+            source.open(position, end);
+            byte[] buffer = new byte[ProxyCacheUtils.DEFAULT_BUFFER_SIZE];
+            int readBytes;
+            while (position < end && !mStopped && !cancelled.get() && (readBytes = source.read(buffer)) != -1) {
+                readBytes = (int) Math.min(readBytes, end - position);
+                cache.write(ByteBuffer.wrap(buffer, 0, readBytes), position);
+                position += readBytes;
+                boolean progress = false;
+                while (block < endBlock && cache.blockEnd(block) <= position) {
+                    boolean marked;
+                    synchronized (cache) {
+                        //读的一方一看到最后一块就可能读完,所以先记下缓存完整再标记
+                        if (cache.isLastMissingBlock(block)) {
+                            mStore.onCompleted(mCacheName);
+                        }
+                        marked = cache.markBlockCached(block);
+                    }
+                    if (marked) {
+                        mStore.onBytesCached(mCacheName, cache.blockEnd(block) - cache.blockStart(block));
+                    }
+                    mClaims.release(block);
+                    block++;
+                    progress = true;
+                }
+                if (progress) {
+                    notifyProgress();
+                }
+            }
+        } finally {
+            source.close();
+        }
+        if (position < end && !mStopped && !cancelled.get()) {
+            throw new ProxyCacheException("Source " + mUrl + " ended at " + position + ", expected " + end);
+        }
+    }
+
+    synchronized void shutdown() {
+        Log.d(TAG, "Shutdown proxy for " + mUrl);
+        mStopped = true;
+        if (mCache != null) {
+            mCache.close();
+        }
+    }
+}
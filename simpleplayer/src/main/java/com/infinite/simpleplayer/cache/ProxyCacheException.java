@@ -0,0 +1,17 @@
+package com.infinite.simpleplayer.cache;
+
+/**
+ * 本地代理缓存过程中出现的错误
+ */
+public class ProxyCacheException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public ProxyCacheException(String message) {
+        super(message);
+    }
+
+    public ProxyCacheException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
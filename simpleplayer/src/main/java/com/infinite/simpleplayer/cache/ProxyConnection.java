@@ -0,0 +1,241 @@
+package com.infinite.simpleplayer.cache;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * MediaPlayer到本地代理的一个连接,只在selector线程里使用.
+ * 连接自己不持有数据缓冲区:响应体全部用transferTo从缓存文件发送,socket写满时等下一次可写,
+ * 数据还没下载时暂停,等{@link ProxyCache}通知后继续.
+ */
+class ProxyConnection {
+
+    private static final String TAG = "ProxyConnection";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_REQUEST_SIZE = 8 * 1024;
+    private static final long MAX_TRANSFER_PER_TURN = 256 * 1024;  // 每次可写最多发送的字节数,各连接轮流发送
+
+    interface Host {
+
+        ProxyCache acquireProxyCache(String url);
+
+        void releaseProxyCache(ProxyCache proxyCache);
+    }
+
+    private final SocketChannel mChannel;
+    private final SelectionKey mKey;
+    private final Host mHost;
+    private final AtomicBoolean mDownloadCancelled = new AtomicBoolean();  // 断开时取消这个连接发起的下载
+    private ByteBuffer mRequestBuffer = ByteBuffer.allocate(1024);
+    private GetRequest mRequest;
+    private ProxyCache mProxyCache;
+    private ByteBuffer mHeaderBuffer;
+    private long mOffset;
+    private long mEnd;
+    private int mWaitedBlock = -1;  // 最近一次等待下载的块
+    private int mWaitedFailures;  // 开始等待时这一块下载失败的次数
+    private int mMissedBlock = -1;  // [mMissedBlock, mMissedBlockEnd)是因为等待而下载的块,发送时算作源站的字节
+    private int mMissedBlockEnd = -1;
+    private boolean mWaiting;
+    private boolean mClosed;
+
+    ProxyConnection(SocketChannel channel, SelectionKey key, Host host) {
+        mChannel = channel;
+        mKey = key;
+        mHost = host;
+    }
+
+    ProxyCache getProxyCache() {
+        return mProxyCache;
+    }
+
+    boolean isWaiting() {
+        return mWaiting;
+    }
+
+    void onReadable() throws IOException {
+        if (mRequestBuffer.remaining() == 0) {
+            if (mRequestBuffer.capacity() >= MAX_REQUEST_SIZE) {
+                throw new IOException("Request header too large");
+            }
+            ByteBuffer larger = ByteBuffer.allocate(mRequestBuffer.capacity() * 2);
+            mRequestBuffer.flip();
+            larger.put(mRequestBuffer);
+            mRequestBuffer = larger;
+        }
+        if (mChannel.read(mRequestBuffer) < 0) {
+            close();
+            return;
+        }
+        String request = new String(mRequestBuffer.array(), 0, mRequestBuffer.position(), UTF_8);
+        if (!request.contains("\r\n\r\n")) {
+            return;  // 请求头还没收完
+        }
+        mRequestBuffer = null;
+        mRequest = new GetRequest(request);
+        Log.d(TAG, "Request to cache proxy:" + mRequest);
+        mProxyCache = mHost.acquireProxyCache(ProxyCacheUtils.decode(mRequest.uri));
+        mKey.interestOps(0);
+        startResponse();
+    }
+
+    /**
+     * 缓存打开后准备响应头;还没打开时先异步打开
+     */
+    private void startResponse() throws IOException {
+        if (!mProxyCache.isResolved()) {
+            mWaiting = true;
+            mProxyCache.resolveAsync();
+            return;
+        }
+        SparseFileCache cache = mProxyCache.getCache();
+        if (cache == null) {
+            if (mProxyCache.isStopped()) {
+                throw new IOException("Error opening cache for " + mProxyCache.getUrl());
+            }
+            // 源站没有返回长度,无法缓存,让MediaPlayer直接访问源站
+            mHeaderBuffer = ByteBuffer.wrap(newRedirectHeaders(mProxyCache.getUrl()).getBytes(UTF_8));
+        } else {
+            long length = cache.length();
+            if (mRequest.partial && mRequest.rangeOffset >= length) {
+                mHeaderBuffer = ByteBuffer.wrap(newRangeNotSatisfiableHeaders(length).getBytes(UTF_8));  // 发完头部就关闭
+            } else {
+                mOffset = mRequest.rangeOffset;
+                mEnd = mRequest.rangeEnd >= 0 ? Math.min(mRequest.rangeEnd + 1, length) : length;
+                mProxyCache.onRequest(cache.isBlockCached(cache.blockOf(mOffset)));
+                mHeaderBuffer = ByteBuffer.wrap(newResponseHeaders(mRequest, length, cache.getMime()).getBytes(UTF_8));
+            }
+        }
+        mKey.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    void onWritable() throws IOException, ProxyCacheException {
+        if (mHeaderBuffer.hasRemaining()) {
+            mChannel.write(mHeaderBuffer);
+            if (mHeaderBuffer.hasRemaining()) {
+                return;
+            }
+        }
+        SparseFileCache cache = mProxyCache.getCache();
+        long sentThisTurn = 0;
+        while (mOffset < mEnd && sentThisTurn < MAX_TRANSFER_PER_TURN) {
+            long cached = cache.cachedRunLength(mOffset);
+            if (cached <= 0) {
+                waitForBlock(cache.blockOf(mOffset), cache.blockOf(mEnd - 1) + 1);
+                return;
+            }
+            long count = Math.min(Math.min(cached, mEnd - mOffset), MAX_TRANSFER_PER_TURN - sentThisTurn);
+            long transferred = cache.transferTo(mOffset, count, mChannel);
+            if (transferred <= 0) {
+                return;  // socket缓冲区满了,等下一次可写
+            }
+            int block = cache.blockOf(mOffset);
+            long fromOrigin = 0;
+            if (block >= mMissedBlock && block < mMissedBlockEnd) {
+                fromOrigin = Math.min(transferred, cache.blockStart(mMissedBlockEnd) - mOffset);  // 可能连着发到后面已缓存的块
+                mProxyCache.onBytesServedFromOrigin(fromOrigin);
+            }
+            if (transferred > fromOrigin) {
+                mProxyCache.onBytesServedFromCache(transferred - fromOrigin);
+            }
+            mOffset += transferred;
+            sentThisTurn += transferred;
+        }
+        if (mOffset >= mEnd) {
+            close();
+        }
+    }
+
+    /**
+     * @param limit 请求范围的结束块(不包含),不下载范围外的块
+     */
+    private void waitForBlock(int block, int limit) throws IOException {
+        int failures = mProxyCache.getDownloadFailures(block);
+        if (block == mWaitedBlock && failures != mWaitedFailures) {
+            throw new IOException("Error downloading block " + block + " of " + mProxyCache.getUrl());
+        }
+        mWaitedBlock = block;
+        mWaitedFailures = failures;
+        mWaiting = true;
+        mKey.interestOps(0);
+        int end = mProxyCache.requestBlock(block, limit, mDownloadCancelled);
+        if (block < mMissedBlock || block >= mMissedBlockEnd) {
+            mMissedBlock = block;
+            mMissedBlockEnd = end;
+        } else {
+            mMissedBlockEnd = Math.max(mMissedBlockEnd, end);  // 还在同一次下载里
+        }
+    }
+
+    /**
+     * {@link ProxyCache}有新进展,在selector线程调用
+     */
+    void onCacheProgress() throws IOException {
+        if (!mWaiting || mClosed) {
+            return;
+        }
+        mWaiting = false;
+        if (mHeaderBuffer == null) {
+            startResponse();
+        } else {
+            mKey.interestOps(SelectionKey.OP_WRITE);
+        }
+    }
+
+    private String newResponseHeaders(GetRequest request, long length, String mime) {
+        return new StringBuilder()
+                .append(request.partial ? "HTTP/1.1 206 PARTIAL CONTENT\r\n" : "HTTP/1.1 200 OK\r\n")
+                .append("Accept-Ranges: bytes\r\n")
+                .append(String.format(Locale.US, "Content-Length: %d\r\n", mEnd - mOffset))
+                .append(request.partial ? String.format(Locale.US, "Content-Range: bytes %d-%d/%d\r\n",
+                        mOffset, mEnd - 1, length) : "")
+                .append(mime == null || mime.isEmpty() ? "" : String.format(Locale.US, "Content-Type: %s\r\n", mime))
+                .append("Connection: close\r\n")
+                .append("\r\n") // 头部结束
+                .toString();
+    }
+
+    private String newRangeNotSatisfiableHeaders(long length) {
+        return "HTTP/1.1 416 RANGE NOT SATISFIABLE\r\n"
+                + "Content-Range: bytes */" + length + "\r\n"
+                + "Content-Length: 0\r\n"
+                + "Connection: close\r\n"
+                + "\r\n";
+    }
+
+    private String newRedirectHeaders(String url) {
+        return "HTTP/1.1 302 Found\r\n"
+                + "Location: " + url + "\r\n"
+                + "Content-Length: 0\r\n"
+                + "Connection: close\r\n"
+                + "\r\n";
+    }
+
+    void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        mDownloadCancelled.set(true);  // 客户端断开或者跳到别处,没人要的块不再下载
+        mKey.cancel();
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            // 客户端可能已经断开
+        }
+        if (mProxyCache != null) {
+            mHost.releaseProxyCache(mProxyCache);
+        }
+    }
+
+    boolean isClosed() {
+        return mClosed;
+    }
+}
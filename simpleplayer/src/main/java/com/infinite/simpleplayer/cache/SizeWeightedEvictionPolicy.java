@@ -0,0 +1,25 @@
+package com.infinite.simpleplayer.cache;
+
+import java.util.List;
+
+/**
+ * 按 大小 * 闲置时长 / 访问次数 打分,删除得分最高的.大文件和冷门文件优先被删,
+ * 同样的空间可以留下更多的短视频
+ */
+public class SizeWeightedEvictionPolicy implements EvictionPolicy {
+
+    @Override
+    public CacheEntry selectVictim(List<CacheEntry> candidates, long now) {
+        CacheEntry victim = null;
+        double maxScore = -1;
+        for (CacheEntry entry : candidates) {
+            long idle = Math.max(1, now - entry.getLastAccessTime());
+            double score = (double) entry.getSize() * idle / (entry.getAccessCount() + 1);
+            if (score > maxScore) {
+                maxScore = score;
+                victim = entry;
+            }
+        }
+        return victim;
+    }
+}
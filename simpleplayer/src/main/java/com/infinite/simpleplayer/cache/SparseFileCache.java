@@ -0,0 +1,307 @@
+package com.infinite.simpleplayer.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * 按块索引的稀疏文件缓存.每个视频对应两个文件:
+ * <ul>
+ * <li>{@code <name>.data}: 和源文件等长的稀疏文件,下载到哪一段就写到对应偏移</li>
+ * <li>{@code <name>.idx}: 文件头 + 块位图,内存映射,查询某段是否已缓存不需要系统调用</li>
+ * </ul>
+ * 位图只在整块数据写入之后才置位,所以进程重启后直接信任索引,不需要重新校验数据文件.
+ */
+class SparseFileCache {
+
+    static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    static final String INDEX_POSTFIX = ".idx";
+    private static final String DATA_POSTFIX = ".data";
+    private static final int MAGIC = 0x55565643;  // "UVVC"
+    private static final int VERSION = 1;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    // 索引文件头布局
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_LENGTH = 8;
+    private static final int OFFSET_BLOCK_SIZE = 16;
+    private static final int OFFSET_CACHED_BLOCKS = 20;
+    private static final int OFFSET_MIME_LENGTH = 24;
+    private static final int OFFSET_MIME = 28;
+    private static final int MAX_MIME_LENGTH = 100;
+    private static final int HEADER_SIZE = 128;
+
+    private final File mDataFile;
+    private final File mIndexFile;
+    private final long mLength;
+    private final int mBlockSize;
+    private final int mBlockCount;
+    private final String mMime;
+    private RandomAccessFile mDataAccess;
+    private FileChannel mDataChannel;
+    private RandomAccessFile mIndexAccess;
+    private MappedByteBuffer mIndex;
+
+    private SparseFileCache(File root, String name, long length, int blockSize, String mime) {
+        mDataFile = new File(root, name + DATA_POSTFIX);
+        mIndexFile = new File(root, name + INDEX_POSTFIX);
+        mLength = length;
+        mBlockSize = blockSize;
+        mBlockCount = (int) ((length + blockSize - 1) / blockSize);
+        mMime = mime;
+    }
+
+    /**
+     * 打开已有的缓存,不存在或者索引无效时返回null
+     */
+    static SparseFileCache open(File root, String name) throws ProxyCacheException {
+        File indexFile = indexFile(root, name);
+        File dataFile = new File(root, name + DATA_POSTFIX);
+        if (!indexFile.exists() || !dataFile.exists()) {
+            return null;
+        }
+        RandomAccessFile header = null;
+        try {
+            header = new RandomAccessFile(indexFile, "r");
+            if (header.length() < HEADER_SIZE || header.readInt() != MAGIC || header.readInt() != VERSION) {
+                return null;
+            }
+            long length = header.readLong();
+            int blockSize = header.readInt();
+            header.readInt();  // 已缓存块数,映射后再读
+            int mimeLength = header.readInt();
+            if (length <= 0 || blockSize <= 0 || mimeLength < 0 || mimeLength > MAX_MIME_LENGTH) {
+                return null;
+            }
+            byte[] mime = new byte[mimeLength];
+            header.readFully(mime);
+            SparseFileCache cache = new SparseFileCache(root, name, length, blockSize, new String(mime, ASCII));
+            if (header.length() != cache.indexSize()) {
+                return null;
+            }
+            cache.map(false);
+            return cache;
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error opening cache index " + indexFile, e);
+        } finally {
+            ProxyCacheUtils.close(header);
+        }
+    }
+
+    /**
+     * 新建缓存,覆盖同名的旧文件
+     */
+    static SparseFileCache create(File root, String name, long length, String mime) throws ProxyCacheException {
+        if (!root.exists() && !root.mkdirs()) {
+            throw new ProxyCacheException("Can't create cache directory " + root);
+        }
+        byte[] mimeBytes = mime == null ? new byte[0] : mime.getBytes(ASCII);
+        String safeMime = mimeBytes.length > MAX_MIME_LENGTH ? "" : mime;
+        SparseFileCache cache = new SparseFileCache(root, name, length, DEFAULT_BLOCK_SIZE, safeMime);
+        try {
+            cache.map(true);
+        } catch (IOException e) {
+            cache.close();
+            throw new ProxyCacheException("Error creating cache for " + name, e);
+        }
+        return cache;
+    }
+
+    private int indexSize() {
+        return HEADER_SIZE + (mBlockCount + 7) / 8;
+    }
+
+    private void map(boolean create) throws IOException {
+        mDataAccess = new RandomAccessFile(mDataFile, "rw");
+        if (create || mDataAccess.length() != mLength) {
+            mDataAccess.setLength(mLength);  // 稀疏文件,不会真的占用这么多空间
+        }
+        mDataChannel = mDataAccess.getChannel();
+        mIndexAccess = new RandomAccessFile(mIndexFile, "rw");
+        if (create) {
+            mIndexAccess.setLength(0);
+            mIndexAccess.setLength(indexSize());
+        }
+        mIndex = mIndexAccess.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, indexSize());
+        if (create) {
+            byte[] mime = mMime == null ? new byte[0] : mMime.getBytes(ASCII);
+            mIndex.putInt(OFFSET_MAGIC, MAGIC);
+            mIndex.putInt(OFFSET_VERSION, VERSION);
+            mIndex.putLong(OFFSET_LENGTH, mLength);
+            mIndex.putInt(OFFSET_BLOCK_SIZE, mBlockSize);
+            mIndex.putInt(OFFSET_CACHED_BLOCKS, 0);
+            mIndex.putInt(OFFSET_MIME_LENGTH, mime.length);
+            for (int i = 0; i < mime.length; i++) {
+                mIndex.put(OFFSET_MIME + i, mime[i]);
+            }
+            mIndex.force();
+        }
+    }
+
+    long length() {
+        return mLength;
+    }
+
+    int blockSize() {
+        return mBlockSize;
+    }
+
+    String getMime() {
+        return mMime;
+    }
+
+    int blockCount() {
+        return mBlockCount;
+    }
+
+    boolean isCompleted() {
+        return mIndex.getInt(OFFSET_CACHED_BLOCKS) == mBlockCount;
+    }
+
+    /**
+     * @return 已缓存的字节数
+     */
+    long cachedBytes() {
+        int cachedBlocks = mIndex.getInt(OFFSET_CACHED_BLOCKS);
+        long bytes = (long) cachedBlocks * mBlockSize;
+        int lastBlock = mBlockCount - 1;
+        if (cachedBlocks > 0 && isBlockCached(lastBlock)) {
+            bytes -= blockStart(lastBlock + 1) - mLength;  // 最后一块可能不满
+        }
+        return bytes;
+    }
+
+    boolean isBlockCached(int block) {
+        int b = mIndex.get(HEADER_SIZE + (block >> 3));
+        return (b & (1 << (block & 7))) != 0;
+    }
+
+    int blockOf(long offset) {
+        return (int) (offset / mBlockSize);
+    }
+
+    long blockStart(int block) {
+        return (long) block * mBlockSize;
+    }
+
+    long blockEnd(int block) {
+        return Math.min(mLength, blockStart(block + 1));
+    }
+
+    /**
+     * 从offset开始连续已缓存的字节数
+     */
+    long cachedRunLength(long offset) {
+        int block = blockOf(offset);
+        int end = block;
+        while (end < mBlockCount && isBlockCached(end)) {
+            end++;
+        }
+        return end == block ? 0 : blockEnd(end - 1) - offset;
+    }
+
+    /**
+     * 从offset开始连续未缓存区间的结束位置(不包含)
+     */
+    long gapEnd(long offset) {
+        int block = blockOf(offset);
+        while (block < mBlockCount && !isBlockCached(block)) {
+            block++;
+        }
+        return block >= mBlockCount ? mLength : blockStart(block);
+    }
+
+    /**
+     * 把[offset, offset + count)直接从文件送到target,数据不经过Java堆
+     *
+     * @return 实际发送的字节数
+     */
+    long transferTo(long offset, long count, WritableByteChannel target) throws ProxyCacheException {
+        try {
+            return mDataChannel.transferTo(offset, count, target);
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error transferring " + count + " bytes at " + offset + " from " + mDataFile, e);
+        }
+    }
+
+    /**
+     * 从offset读满buffer或读到文件末尾,调用方保证这段已缓存
+     */
+    void read(ByteBuffer buffer, long offset) throws ProxyCacheException {
+        try {
+            int readBytes;
+            while (buffer.hasRemaining() && (readBytes = mDataChannel.read(buffer, offset)) != -1) {
+                offset += readBytes;
+            }
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error reading from " + mDataFile + " at " + offset, e);
+        }
+    }
+
+    /**
+     * 写入数据,不更新索引.整块写完后调用{@link #markBlockCached(int)}
+     */
+    void write(ByteBuffer buffer, long offset) throws ProxyCacheException {
+        try {
+            while (buffer.hasRemaining()) {
+                offset += mDataChannel.write(buffer, offset);
+            }
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error writing to " + mDataFile + " at " + offset, e);
+        }
+    }
+
+    /**
+     * @return block是最后一个没缓存的块,标记之后缓存就完整了
+     */
+    synchronized boolean isLastMissingBlock(int block) {
+        return !isBlockCached(block) && mIndex.getInt(OFFSET_CACHED_BLOCKS) == mBlockCount - 1;
+    }
+
+    /**
+     * @return 之前没缓存,这次新置位时返回true
+     */
+    synchronized boolean markBlockCached(int block) {
+        int position = HEADER_SIZE + (block >> 3);
+        int b = mIndex.get(position);
+        int mask = 1 << (block & 7);
+        if ((b & mask) == 0) {
+            mIndex.put(position, (byte) (b | mask));
+            int cachedBlocks = mIndex.getInt(OFFSET_CACHED_BLOCKS) + 1;
+            mIndex.putInt(OFFSET_CACHED_BLOCKS, cachedBlocks);
+            if (cachedBlocks == mBlockCount) {
+                mIndex.force();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    synchronized void close() {
+        if (mIndex != null) {
+            mIndex.force();
+        }
+        ProxyCacheUtils.close(mDataAccess);
+        ProxyCacheUtils.close(mIndexAccess);
+    }
+
+    static File indexFile(File root, String name) {
+        return new File(root, name + INDEX_POSTFIX);
+    }
+
+    /**
+     * 删除缓存文件
+     */
+    static boolean delete(File root, String name) {
+        boolean data = new File(root, name + DATA_POSTFIX).delete();
+        boolean index = new File(root, name + INDEX_POSTFIX).delete();
+        return data || index;
+    }
+}
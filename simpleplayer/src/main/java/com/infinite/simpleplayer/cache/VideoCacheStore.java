@@ -0,0 +1,248 @@
+package com.infinite.simpleplayer.cache;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 磁盘缓存的容量管理:超出容量时按{@link EvictionPolicy}删除不用的视频,
+ * 固定({@link #pin(String)})的和正在读写的视频不会被删除.同时统计命中率等数据.
+ */
+public class VideoCacheStore {
+
+    private static final String TAG = "VideoCacheStore";
+
+    private final File mCacheRoot;
+    private final Map<String, CacheEntry> mEntries = new HashMap<>();
+    private final ExecutorService mTrimExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean mTrimScheduled = new AtomicBoolean();
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mBytesFromCache = new AtomicLong();
+    private final AtomicLong mBytesFromOrigin = new AtomicLong();
+    private long mEvictionCount;
+    private long mEvictedBytes;
+    private long mSize;
+    private volatile long mMaxSize;
+    private volatile EvictionPolicy mPolicy;
+
+    VideoCacheStore(File cacheRoot, long maxSize, EvictionPolicy policy) {
+        mCacheRoot = cacheRoot;
+        mMaxSize = maxSize;
+        mPolicy = policy;
+        mTrimExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                loadEntries();
+                trimToSize();
+            }
+        });
+    }
+
+    /**
+     * 启动时扫描已有的缓存,以索引文件的修改时间作为最后访问时间
+     */
+    private void loadEntries() {
+        File[] indexFiles = mCacheRoot.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SparseFileCache.INDEX_POSTFIX);
+            }
+        });
+        if (indexFiles == null) {
+            return;
+        }
+        for (File indexFile : indexFiles) {
+            String name = indexFile.getName();
+            String key = name.substring(0, name.length() - SparseFileCache.INDEX_POSTFIX.length());
+            long size = 0;
+            boolean completed = false;
+            try {
+                SparseFileCache cache = SparseFileCache.open(mCacheRoot, key);
+                if (cache == null) {
+                    SparseFileCache.delete(mCacheRoot, key);  // 无效的索引
+                    continue;
+                }
+                size = cache.cachedBytes();
+                completed = cache.isCompleted();
+                cache.close();
+            } catch (ProxyCacheException e) {
+                Log.w(TAG, "Error reading cache index " + indexFile, e);
+            }
+            synchronized (this) {
+                CacheEntry entry = mEntries.get(key);
+                if (entry == null) {
+                    entry = new CacheEntry(key, size, indexFile.lastModified());
+                    mEntries.put(key, entry);
+                    mSize += size;
+                } else if (entry.mSize < size) {  // 扫描完成前已经开始使用了
+                    mSize += size - entry.mSize;
+                    entry.mSize = size;
+                }
+                entry.mCompleted |= completed;
+            }
+        }
+    }
+
+    /**
+     * 固定视频,不会被淘汰.比如正在播放的或者马上要播放的视频.可以重复调用,需要同样次数的{@link #unpin(String)}
+     */
+    public synchronized void pin(String url) {
+        getOrCreateEntry(ProxyCacheUtils.computeMD5(url)).mPinCount++;
+    }
+
+    public synchronized void unpin(String url) {
+        CacheEntry entry = mEntries.get(ProxyCacheUtils.computeMD5(url));
+        if (entry != null && entry.mPinCount > 0) {
+            entry.mPinCount--;
+        }
+        trimAsync();
+    }
+
+    public synchronized boolean isPinned(String url) {
+        CacheEntry entry = mEntries.get(ProxyCacheUtils.computeMD5(url));
+        return entry != null && entry.isPinned();
+    }
+
+    public void setMaxSize(long maxSize) {
+        mMaxSize = maxSize;
+        trimAsync();
+    }
+
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    public void setEvictionPolicy(EvictionPolicy policy) {
+        mPolicy = policy;
+    }
+
+    public synchronized CacheStats getStats() {
+        return new CacheStats(mRequestCount.get(), mHitCount.get(), mBytesFromCache.get(), mBytesFromOrigin.get(),
+                mEvictionCount, mEvictedBytes, mSize, mMaxSize);
+    }
+
+    /**
+     * 清空统计数据,不影响缓存内容
+     */
+    public synchronized void resetStats() {
+        mRequestCount.set(0);
+        mHitCount.set(0);
+        mBytesFromCache.set(0);
+        mBytesFromOrigin.set(0);
+        mEvictionCount = 0;
+        mEvictedBytes = 0;
+    }
+
+    /**
+     * 开始读写某个缓存,期间不会被删除
+     */
+    synchronized void acquire(String key) {
+        CacheEntry entry = getOrCreateEntry(key);
+        entry.mInUseCount++;
+        entry.mAccessCount++;
+        entry.mLastAccessTime = System.currentTimeMillis();
+    }
+
+    synchronized void release(String key) {
+        CacheEntry entry = mEntries.get(key);
+        if (entry == null) {
+            return;
+        }
+        entry.mInUseCount--;
+        entry.mLastAccessTime = System.currentTimeMillis();
+        File indexFile = SparseFileCache.indexFile(mCacheRoot, key);
+        if (indexFile.exists() && !indexFile.setLastModified(entry.mLastAccessTime)) {
+            Log.w(TAG, "Can't update access time of " + indexFile);
+        }
+        trimAsync();
+    }
+
+    void onRequest(boolean hit) {
+        mRequestCount.incrementAndGet();
+        if (hit) {
+            mHitCount.incrementAndGet();
+        }
+    }
+
+    void onBytesServed(boolean fromCache, long bytes) {
+        (fromCache ? mBytesFromCache : mBytesFromOrigin).addAndGet(bytes);
+    }
+
+    synchronized void onBytesCached(String key, long bytes) {
+        getOrCreateEntry(key).mSize += bytes;
+        mSize += bytes;
+        if (mSize > mMaxSize) {
+            trimAsync();
+        }
+    }
+
+    synchronized void onCompleted(String key) {
+        getOrCreateEntry(key).mCompleted = true;
+    }
+
+    /**
+     * 只查内存里的记录,不读文件,可以在主线程调用.启动时的扫描完成前,之前缓存的视频返回false
+     */
+    synchronized boolean isCompleted(String key) {
+        CacheEntry entry = mEntries.get(key);
+        return entry != null && entry.mCompleted;
+    }
+
+    private CacheEntry getOrCreateEntry(String key) {
+        CacheEntry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new CacheEntry(key, 0, System.currentTimeMillis());
+            mEntries.put(key, entry);
+        }
+        return entry;
+    }
+
+    private void trimAsync() {
+        // 同一时间只排一个整理任务,避免下载过程中每写一块就提交一次
+        if (mSize > mMaxSize && !mTrimExecutor.isShutdown() && mTrimScheduled.compareAndSet(false, true)) {
+            mTrimExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    mTrimScheduled.set(false);
+                    trimToSize();
+                }
+            });
+        }
+    }
+
+    private synchronized void trimToSize() {
+        List<CacheEntry> candidates = new ArrayList<>();
+        while (mSize > mMaxSize) {
+            candidates.clear();
+            for (CacheEntry entry : mEntries.values()) {
+                if (entry.isEvictable() && entry.mSize > 0) {  //空条目腾不出空间,比如只是被固定过
+                    candidates.add(entry);
+                }
+            }
+            if (candidates.isEmpty()) {
+                return;  // 剩下的都在使用中,释放时会再次整理
+            }
+            CacheEntry victim = mPolicy.selectVictim(candidates, System.currentTimeMillis());
+            mEntries.remove(victim.mKey);
+            SparseFileCache.delete(mCacheRoot, victim.mKey);
+            mSize -= victim.mSize;
+            mEvictionCount++;
+            mEvictedBytes += victim.mSize;
+            Log.d(TAG, "Evicted " + victim.mKey + ", size " + victim.mSize);
+        }
+    }
+
+    void shutdown() {
+        mTrimExecutor.shutdown();
+    }
+}
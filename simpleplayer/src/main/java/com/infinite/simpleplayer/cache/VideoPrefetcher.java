@@ -0,0 +1,284 @@
+package com.infinite.simpleplayer.cache;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 预加载即将播放的视频:在后台把文件头和moov下载到缓存,之后setVideoURI直接从本地开始播.
+ * <p>
+ * 预加载在单独的低优先级线程里排队执行,不占用播放的下载线程.
+ * 排队的任务最多{@link #MAX_PENDING}个,超出时取消最早的.
+ */
+class VideoPrefetcher {
+
+    private static final String TAG = "VideoPrefetcher";
+    private static final int MAX_PENDING = 8;
+    private static final int MAX_BOXES = 32;  // 最多遍历的顶层box数,超过就不是正常的mp4
+    private static final long DEFAULT_BYTES_PER_SECOND = 256 * 1024;  // 拿不到时长时按2Mbps估算
+    private static final int BOX_MOOV = 0x6d6f6f76;  // "moov"
+    private static final int BOX_MDAT = 0x6d646174;  // "mdat"
+    private static final int BOX_MVHD = 0x6d766864;  // "mvhd"
+
+    private final ProxyConnection.Host mHost;
+    private final LinkedHashMap<String, PrefetchTask> mTasks = new LinkedHashMap<>();  // 按提交顺序
+    private final ThreadPoolExecutor mExecutor;
+
+    VideoPrefetcher(ProxyConnection.Host host) {
+        mHost = host;
+        mExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "Video prefetch");
+                    }
+                });
+    }
+
+    /**
+     * 预加载文件头bytes字节,以及moov
+     */
+    void prefetchBytes(String url, long bytes) {
+        submit(new PrefetchTask(url, bytes, 0));
+    }
+
+    /**
+     * 预加载开头millis毫秒,以及moov.按moov里的时长估算码率
+     */
+    void prefetchMillis(String url, long millis) {
+        submit(new PrefetchTask(url, 0, millis));
+    }
+
+    private void submit(PrefetchTask task) {
+        PrefetchTask dropped = null;
+        synchronized (mTasks) {
+            if (mTasks.containsKey(task.mUrl)) {
+                return;
+            }
+            if (mTasks.size() >= MAX_PENDING) {
+                dropped = mTasks.remove(mTasks.keySet().iterator().next());
+            }
+            mTasks.put(task.mUrl, task);
+        }
+        if (dropped != null) {
+            Log.d(TAG, "Too many prefetches, drop " + dropped.mUrl);
+            cancelTask(dropped);
+        }
+        try {
+            mExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Prefetcher is shut down, drop " + task.mUrl);
+            task.finish();
+        }
+    }
+
+    void cancel(String url) {
+        PrefetchTask task;
+        synchronized (mTasks) {
+            task = mTasks.remove(url);
+        }
+        if (task != null) {
+            cancelTask(task);
+        }
+    }
+
+    void cancelAll() {
+        List<PrefetchTask> tasks;
+        synchronized (mTasks) {
+            tasks = new ArrayList<>(mTasks.values());
+            mTasks.clear();
+        }
+        for (PrefetchTask task : tasks) {
+            cancelTask(task);
+        }
+    }
+
+    private void cancelTask(PrefetchTask task) {
+        task.mCancelled.set(true);
+        mExecutor.remove(task);  // 还在排队的直接移出队列
+    }
+
+    void shutdown() {
+        cancelAll();
+        mExecutor.shutdownNow();
+    }
+
+    private final class PrefetchTask implements Runnable {
+
+        private final String mUrl;
+        private final long mBytes;
+        private final long mMillis;
+        private final AtomicBoolean mCancelled = new AtomicBoolean();
+        private long mMoovOffset = -1;
+        private long mMoovSize;
+        private long mMdatOffset = -1;
+
+        PrefetchTask(String url, long bytes, long millis) {
+            this.mUrl = url;
+            this.mBytes = bytes;
+            this.mMillis = millis;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            try {
+                if (!mCancelled.get()) {
+                    prefetch();
+                }
+            } catch (ProxyCacheException | RuntimeException e) {
+                Log.w(TAG, "Error prefetching " + mUrl, e);
+            } finally {
+                finish();
+            }
+        }
+
+        private void finish() {
+            synchronized (mTasks) {
+                if (mTasks.get(mUrl) == this) {
+                    mTasks.remove(mUrl);
+                }
+            }
+        }
+
+        private void prefetch() throws ProxyCacheException {
+            long startTime = SystemClock.elapsedRealtime();
+            ProxyCache proxyCache = mHost.acquireProxyCache(mUrl);
+            try {
+                proxyCache.resolveNow();
+                SparseFileCache cache = proxyCache.getCache();
+                if (cache == null) {
+                    Log.w(TAG, "Can't prefetch " + mUrl);
+                    return;
+                }
+                if (cache.isCompleted()) {
+                    return;
+                }
+                if (mBytes > 0 && !proxyCache.prefetch(0, mBytes, mCancelled)) {
+                    return;
+                }
+                if (!scanBoxes(proxyCache, cache)) {
+                    return;
+                }
+                if (mMoovOffset >= 0 && !proxyCache.prefetch(mMoovOffset, mMoovOffset + mMoovSize, mCancelled)) {
+                    return;
+                }
+                if (mMillis > 0) {
+                    long headStart = mMdatOffset >= 0 ? mMdatOffset : 0;
+                    if (!proxyCache.prefetch(0, headStart + estimateBytes(cache), mCancelled)) {
+                        return;
+                    }
+                }
+                Log.d(TAG, "Prefetched " + mUrl + ", cached " + cache.cachedBytes() + " bytes in "
+                        + (SystemClock.elapsedRealtime() - startTime) + "ms");
+            } finally {
+                mHost.releaseProxyCache(proxyCache);
+            }
+        }
+
+        /**
+         * 遍历顶层box找到moov和mdat.moov在mdat后面时,只多下载mdat之后box头所在的一块
+         *
+         * @return 被取消或下载失败时返回false
+         */
+        private boolean scanBoxes(ProxyCache proxyCache, SparseFileCache cache) throws ProxyCacheException {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            long offset = 0;
+            for (int i = 0; i < MAX_BOXES && offset + 8 <= cache.length(); i++) {
+                if (!readHeader(proxyCache, cache, offset, header)) {
+                    return false;
+                }
+                long size = header.getInt() & 0xffffffffL;
+                int type = header.getInt();
+                int headerSize = 8;
+                if (size == 1 && header.remaining() >= 8) {
+                    size = header.getLong();
+                    headerSize = 16;
+                } else if (size == 0) {
+                    size = cache.length() - offset;  // 一直到文件末尾
+                }
+                if (size < headerSize || offset + size > cache.length()) {
+                    Log.d(TAG, "Not a mp4 file, skip moov " + mUrl);
+                    break;
+                }
+                if (type == BOX_MOOV) {
+                    mMoovOffset = offset;
+                    mMoovSize = size;
+                } else if (type == BOX_MDAT) {
+                    mMdatOffset = offset + headerSize;
+                }
+                if (mMoovOffset >= 0 && mMdatOffset >= 0) {
+                    break;
+                }
+                offset += size;
+            }
+            return true;
+        }
+
+        private boolean readHeader(ProxyCache proxyCache, SparseFileCache cache, long offset, ByteBuffer header)
+                throws ProxyCacheException {
+            if (!proxyCache.prefetch(offset, offset + header.capacity(), mCancelled)) {
+                return false;
+            }
+            header.clear();
+            header.limit((int) Math.min(header.capacity(), cache.length() - offset));
+            cache.read(header, offset);
+            header.flip();
+            return header.remaining() >= 8;
+        }
+
+        /**
+         * 开头mMillis毫秒大约有多少字节,moov已经缓存
+         */
+        private long estimateBytes(SparseFileCache cache) throws ProxyCacheException {
+            long duration = mMoovOffset >= 0 ? readDurationMillis(cache) : 0;
+            if (duration <= 0) {
+                return mMillis * DEFAULT_BYTES_PER_SECOND / 1000;
+            }
+            return cache.length() * Math.min(mMillis, duration) / duration;
+        }
+
+        /**
+         * 从moov/mvhd读取视频时长
+         */
+        private long readDurationMillis(SparseFileCache cache) throws ProxyCacheException {
+            ByteBuffer buffer = ByteBuffer.allocate(40);
+            long offset = mMoovOffset + 8;
+            long end = mMoovOffset + mMoovSize;
+            while (offset + 8 <= end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - offset));
+                cache.read(buffer, offset);
+                buffer.flip();
+                long size = buffer.getInt() & 0xffffffffL;
+                int type = buffer.getInt();
+                if (type == BOX_MVHD) {
+                    int version = buffer.get();
+                    if (buffer.remaining() < (version == 1 ? 31 : 19)) {
+                        break;
+                    }
+                    buffer.position(buffer.position() + (version == 1 ? 19 : 11));  // flags和创建、修改时间
+                    long timescale = buffer.getInt() & 0xffffffffL;
+                    long duration = version == 1 ? buffer.getLong() : buffer.getInt() & 0xffffffffL;
+                    return timescale > 0 ? duration * 1000 / timescale : 0;
+                }
+                if (size < 8) {
+                    break;
+                }
+                offset += size;
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.infinite.simpleplayer;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 位置表的删除:加载完成前留下值为0的条目,加载完成后直接移除,反复增删表也不会变大
+ */
+public class LongIntMapTest {
+
+    @Test
+    public void randomPutsAndRemovesMatchHashMap() {
+        PositionStore.LongIntMap map = new PositionStore.LongIntMap();
+        map.dropTombstones();
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(3);
+        for (int n = 0; n < 200000; n++) {
+            long key = 1 + random.nextInt(2000);  //0表示空位,不会出现
+            int value = random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(100000);
+            map.put(key, value);
+            if (value == 0) {
+                expected.remove(key);
+            } else {
+                expected.put(key, value);
+            }
+        }
+        for (long key = 1; key <= 2000; key++) {
+            Integer value = expected.get(key);
+            assertEquals("key " + key, value != null ? (int) value : 0, map.get(key));
+        }
+        assertEquals(expected.size(), map.liveCount());
+    }
+
+    @Test
+    public void removedKeysDoNotGrowTable() {
+        PositionStore.LongIntMap map = new PositionStore.LongIntMap();
+        map.dropTombstones();
+        for (long key = 1; key <= 100000; key++) {
+            map.put(key, 1000);
+            map.put(key, 0);
+        }
+        assertEquals(0, map.liveCount());
+        assertEquals(64, map.capacity());
+    }
+
+    @Test
+    public void tombstonesOverrideLoadedPositionsThenGetDropped() {
+        PositionStore.LongIntMap map = new PositionStore.LongIntMap();
+        for (long key = 1; key <= 100; key++) {
+            map.put(key, 0);  //加载完成前删除
+        }
+        PositionStore.LongIntMap loaded = new PositionStore.LongIntMap();
+        for (long key = 1; key <= 200; key++) {
+            loaded.put(key, 5000);
+        }
+        map.putAllAbsent(loaded);
+        map.dropTombstones();
+        for (long key = 1; key <= 200; key++) {
+            assertEquals("key " + key, key <= 100 ? 0 : 5000, map.get(key));
+        }
+        assertEquals(100, map.liveCount());
+        assertTrue(map.capacity() <= 256);
+    }
+}
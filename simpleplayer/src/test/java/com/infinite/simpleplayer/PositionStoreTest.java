@@ -0,0 +1,64 @@
+package com.infinite.simpleplayer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 文件加载完之前的更新以内存为准:删除不能被文件里的旧位置盖回来.
+ * 单元测试里Handler不执行任务,直接调用{@link PositionStore#load()}模拟后台加载完成
+ */
+public class PositionStoreTest {
+
+    private static final long KEY = 42;
+    private static final long OTHER_KEY = 43;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void removeBeforeLoadOverridesStoredPosition() throws Exception {
+        File file = writeRecords(KEY, 5000, OTHER_KEY, 7000);
+        PositionStore store = new PositionStore(file);
+
+        store.put(KEY, 0);  //看完了,文件还没加载
+        store.load();
+
+        assertEquals(0, store.get(KEY));
+        assertEquals(7000, store.get(OTHER_KEY));
+    }
+
+    @Test
+    public void putBeforeLoadOverridesStoredPosition() throws Exception {
+        File file = writeRecords(KEY, 5000);
+        PositionStore store = new PositionStore(file);
+
+        store.put(KEY, 9000);
+        store.load();
+
+        assertEquals(9000, store.get(KEY));
+        store.put(KEY, 0);  //加载完之后的删除直接移除
+        assertEquals(0, store.get(KEY));
+    }
+
+    private File writeRecords(long... keysAndPositions) throws IOException {
+        File file = mTemporaryFolder.newFile("positions");
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(file));
+        try {
+            for (int i = 0; i < keysAndPositions.length; i += 2) {
+                output.writeLong(keysAndPositions[i]);
+                output.writeInt((int) keysAndPositions[i + 1]);
+            }
+        } finally {
+            output.close();
+        }
+        return file;
+    }
+}
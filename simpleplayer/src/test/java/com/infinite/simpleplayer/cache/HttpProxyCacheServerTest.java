@@ -0,0 +1,118 @@
+package com.infinite.simpleplayer.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 通过本地源站验证边播边缓存:先从中间开始读,再完整读一遍,之后完全从缓存读
+ */
+public class HttpProxyCacheServerTest {
+
+    private static final int LENGTH = 1000 * 1000 + 1;  //最后一块不满
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private TestOriginServer mOrigin;
+    private HttpProxyCacheServer mProxy;
+
+    @Before
+    public void setUp() throws Exception {
+        mOrigin = new TestOriginServer(LENGTH, SparseFileCache.DEFAULT_BLOCK_SIZE);
+        mProxy = new HttpProxyCacheServer(mTemporaryFolder.newFolder("cache"), 100 * 1024 * 1024,
+                new LruEvictionPolicy());
+    }
+
+    @After
+    public void tearDown() {
+        mProxy.shutdown();
+        mOrigin.shutdown();
+    }
+
+    @Test
+    public void rangeRequestThenCachedReRead() throws Exception {
+        String url = mOrigin.getUrl("video.mp4");
+        byte[] data = mOrigin.getData();
+        String proxyUrl = mProxy.getProxyUrl(url);
+
+        int offset = 600 * 1000;
+        byte[] tail = TestOriginServer.read(proxyUrl, offset);
+        assertArrayEquals(Arrays.copyOfRange(data, offset, data.length), tail);
+        assertFalse(mProxy.isCached(url));
+
+        byte[] full = TestOriginServer.read(proxyUrl, 0);
+        assertArrayEquals(data, full);
+        assertTrue(mProxy.isCached(url));
+        for (int block = 0; block < mOrigin.getBlockCount(); block++) {
+            assertEquals("downloads of block " + block, 1, mOrigin.getBlockDownloads(block));
+        }
+        //offset所在的块第一次读时整块下载,完整读时前半部分从缓存发出
+        int blockStart = offset / SparseFileCache.DEFAULT_BLOCK_SIZE * SparseFileCache.DEFAULT_BLOCK_SIZE;
+        CacheStats stats = mProxy.getCacheStore().getStats();
+        assertEquals(LENGTH - (offset - blockStart), stats.getBytesFromOrigin());
+        assertEquals(LENGTH - blockStart, stats.getBytesFromCache());
+
+        int requests = mOrigin.getRequestCount();
+        long bytesServed = mOrigin.getBytesServed();
+        assertArrayEquals(data, TestOriginServer.read(proxyUrl, 0));
+        assertArrayEquals(Arrays.copyOfRange(data, offset, data.length), TestOriginServer.read(proxyUrl, offset));
+        assertEquals(requests, mOrigin.getRequestCount());
+        assertEquals(bytesServed, mOrigin.getBytesServed());
+    }
+
+    @Test
+    public void boundedRangeStopsAtRangeEnd() throws Exception {
+        String url = mOrigin.getUrl("video.mp4");
+        byte[] data = mOrigin.getData();
+        String proxyUrl = mProxy.getProxyUrl(url);
+
+        byte[] range = TestOriginServer.read(proxyUrl, "bytes=100-199");
+        assertArrayEquals(Arrays.copyOfRange(data, 100, 200), range);
+        assertEquals(1, mOrigin.getBlockDownloads(0));
+        assertEquals(0, mOrigin.getBlockDownloads(1));  //范围外的块不下载
+    }
+
+    @Test
+    public void rangePastEndIsNotSatisfiable() throws Exception {
+        String proxyUrl = mProxy.getProxyUrl(mOrigin.getUrl("video.mp4"));
+        HttpURLConnection connection = (HttpURLConnection) new URL(proxyUrl).openConnection();
+        connection.setRequestProperty("Range", "bytes=" + LENGTH + "-");
+        try {
+            assertEquals(416, connection.getResponseCode());
+            assertEquals("bytes */" + LENGTH, connection.getHeaderField("Content-Range"));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void originWithoutOptionalHeaders() throws Exception {
+        mOrigin.setOmitOptionalHeaders(true);
+        String url = mOrigin.getUrl("video.mp4");
+        byte[] data = mOrigin.getData();
+        String proxyUrl = mProxy.getProxyUrl(url);
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(proxyUrl).openConnection();
+        try {
+            assertEquals(200, connection.getResponseCode());
+            assertEquals(String.valueOf(LENGTH), connection.getHeaderField("Content-Length"));  //长度来自Content-Range
+            assertEquals("video/mp4", connection.getHeaderField("Content-Type"));
+        } finally {
+            connection.disconnect();
+        }
+        assertArrayEquals(data, TestOriginServer.read(proxyUrl, 0));
+        assertTrue(mProxy.isCached(url));
+    }
+}
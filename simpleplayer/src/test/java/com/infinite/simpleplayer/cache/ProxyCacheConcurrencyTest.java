@@ -0,0 +1,123 @@
+package com.infinite.simpleplayer.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 很多连接同时读同一个视频:每个连接都要读到完整正确的数据,每一块只从源站下载一次
+ */
+public class ProxyCacheConcurrencyTest {
+
+    private static final int LENGTH = 3 * 1000 * 1000 + 1;
+    private static final int READERS = 64;
+    private static final int THREADS = 32;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private TestOriginServer mOrigin;
+    private HttpProxyCacheServer mProxy;
+
+    @Before
+    public void setUp() throws Exception {
+        mOrigin = new TestOriginServer(LENGTH, SparseFileCache.DEFAULT_BLOCK_SIZE);
+        mProxy = new HttpProxyCacheServer(mTemporaryFolder.newFolder("cache"), 100 * 1024 * 1024,
+                new LruEvictionPolicy());
+    }
+
+    @After
+    public void tearDown() {
+        mProxy.shutdown();
+        mOrigin.shutdown();
+    }
+
+    @Test
+    public void concurrentReadersShareDownloads() throws Exception {
+        String url = mOrigin.getUrl("video.mp4");
+        final String proxyUrl = mProxy.getProxyUrl(url);
+        final byte[] data = mOrigin.getData();
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<byte[]>> results = new ArrayList<>();
+        final int[] offsets = new int[READERS];
+        Random random = new Random(2);
+        for (int i = 0; i < READERS; i++) {
+            offsets[i] = i == 0 ? 0 : random.nextInt(LENGTH);  //第一个从头读,保证每一块都会被请求
+            final int offset = offsets[i];
+            results.add(executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    startSignal.await();
+                    return TestOriginServer.read(proxyUrl, offset);
+                }
+            }));
+        }
+        startSignal.countDown();
+        for (int i = 0; i < READERS; i++) {
+            assertArrayEquals("reader " + i + " from " + offsets[i],
+                    Arrays.copyOfRange(data, offsets[i], LENGTH), results.get(i).get(60, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+
+        assertTrue(mProxy.isCached(url));
+        for (int block = 0; block < mOrigin.getBlockCount(); block++) {
+            assertEquals("downloads of block " + block, 1, mOrigin.getBlockDownloads(block));
+        }
+        assertEquals(LENGTH + 1, mOrigin.getBytesServed());  //查询长度时多请求的一个字节
+    }
+
+    @Test
+    public void blockClaimedByOneThreadOnly() throws Exception {
+        final int blocks = 1024;
+        final BlockClaims claims = new BlockClaims(blocks);
+        final AtomicInteger[] winners = new AtomicInteger[blocks];
+        for (int i = 0; i < blocks; i++) {
+            winners[i] = new AtomicInteger();
+        }
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    startSignal.await();
+                    for (int block = 0; block < blocks; block++) {
+                        if (claims.tryClaim(block)) {
+                            winners[block].incrementAndGet();  //认领后不释放,别的线程不能再认领
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        startSignal.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        for (int block = 0; block < blocks; block++) {
+            assertEquals("winners of block " + block, 1, winners[block].get());
+            assertTrue(claims.isClaimed(block));
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.infinite.simpleplayer.cache;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 测试用的本地源站:内容是固定种子的随机数据,支持Range请求,
+ * 记录请求数、发出的字节数和每一块被完整下载的次数
+ */
+class TestOriginServer {
+
+    private static final Pattern RANGE_PATTERN = Pattern.compile("(?i)^range:\\s*bytes=(\\d+)-(\\d*)");
+
+    private final byte[] mData;
+    private final int mBlockSize;
+    private final AtomicIntegerArray mBlockDownloads;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicLong mBytesServed = new AtomicLong();
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private volatile boolean mOmitOptionalHeaders;
+
+    TestOriginServer(int length, int blockSize) throws IOException {
+        mData = new byte[length];
+        new Random(1).nextBytes(mData);
+        mBlockSize = blockSize;
+        mBlockDownloads = new AtomicIntegerArray((length + blockSize - 1) / blockSize);
+        mServerSocket = new ServerSocket();
+        mServerSocket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        });
+    }
+
+    /**
+     * 不发Content-Length和Content-Type,像有些源站那样只靠Content-Range和关闭连接表示长度
+     */
+    void setOmitOptionalHeaders(boolean omit) {
+        mOmitOptionalHeaders = omit;
+    }
+
+    String getUrl(String path) {
+        return String.format(Locale.US, "http://127.0.0.1:%d/%s", mServerSocket.getLocalPort(), path);
+    }
+
+    byte[] getData() {
+        return mData;
+    }
+
+    int getBlockCount() {
+        return mBlockDownloads.length();
+    }
+
+    /**
+     * @return block被完整包含在源站响应里的次数,查询长度时只请求一个字节,不算
+     */
+    int getBlockDownloads(int block) {
+        return mBlockDownloads.get(block);
+    }
+
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    long getBytesServed() {
+        return mBytesServed.get();
+    }
+
+    void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+        mExecutor.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException e) {
+                        // 代理主动断开
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            // 忽略
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+        long from = -1;
+        long to = mData.length - 1;
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            Matcher matcher = RANGE_PATTERN.matcher(line);
+            if (matcher.find()) {
+                from = Long.parseLong(matcher.group(1));
+                if (!matcher.group(2).isEmpty()) {
+                    to = Math.min(to, Long.parseLong(matcher.group(2)));
+                }
+            }
+        }
+        mRequestCount.incrementAndGet();
+        OutputStream output = socket.getOutputStream();
+        StringBuilder headers = new StringBuilder();
+        if (from >= mData.length) {
+            headers.append("HTTP/1.1 416 Range Not Satisfiable\r\n")
+                    .append("Content-Range: bytes */").append(mData.length).append("\r\n")
+                    .append("Content-Length: 0\r\n");
+            from = 0;
+            to = -1;
+        } else if (from >= 0) {
+            headers.append("HTTP/1.1 206 Partial Content\r\n")
+                    .append(String.format(Locale.US, "Content-Range: bytes %d-%d/%d\r\n", from, to, mData.length));
+        } else {
+            from = 0;
+            headers.append("HTTP/1.1 200 OK\r\n");
+        }
+        if (!mOmitOptionalHeaders && to >= from) {
+            headers.append("Content-Length: ").append(to - from + 1).append("\r\n")
+                    .append("Content-Type: video/mp4\r\n");
+        }
+        headers.append("Connection: close\r\n")
+                .append("\r\n");
+        output.write(headers.toString().getBytes("US-ASCII"));
+        for (long position = from; position <= to; position += 8192) {
+            int count = (int) Math.min(8192, to + 1 - position);
+            output.write(mData, (int) position, count);
+            mBytesServed.addAndGet(count);
+        }
+        output.flush();
+        for (int block = 0; block < getBlockCount(); block++) {
+            long blockStart = (long) block * mBlockSize;
+            long blockEnd = Math.min(mData.length, blockStart + mBlockSize);
+            if (blockStart >= from && blockEnd - 1 <= to) {
+                mBlockDownloads.incrementAndGet(block);
+            }
+        }
+    }
+
+    /**
+     * 用HttpURLConnection读url,offset大于0时发Range请求,读到响应结束
+     */
+    static byte[] read(String url, long offset) throws IOException {
+        return read(url, offset > 0 ? "bytes=" + offset + "-" : null);
+    }
+
+    static byte[] read(String url, String range) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        InputStream input = connection.getInputStream();
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int readBytes;
+            while ((readBytes = input.read(buffer)) != -1) {
+                output.write(buffer, 0, readBytes);
+            }
+            return output.toByteArray();
+        } finally {
+            input.close();
+            connection.disconnect();
+        }
+    }
+}
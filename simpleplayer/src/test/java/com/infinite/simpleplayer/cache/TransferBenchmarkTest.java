@@ -0,0 +1,186 @@
+package com.infinite.simpleplayer.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 缓存发送路径的吞吐量和分配量:{@link SparseFileCache#transferTo}对比原来经过Java堆的流拷贝.
+ * 按MediaPlayer的习惯每次请求1MB,记录发送线程的耗时和分配的字节数,结果打印出来,只校验发送的字节数.
+ * 分配量通过HotSpot的ThreadMXBean读取,拿不到时显示-1.
+ * 只有计时没有校验,不放进平时的单元测试,需要时去掉{@link Ignore}手动运行
+ */
+@Ignore("Manual benchmark, prints timings only")
+public class TransferBenchmarkTest {
+
+    private static final int LENGTH = 32 * 1024 * 1024;
+    private static final int RESPONSE_SIZE = 1024 * 1024;
+    private static final int ROUNDS = 3;  //第一轮预热,不计入结果
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private SparseFileCache mCache;
+    private ServerSocketChannel mServerChannel;
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        mCache = SparseFileCache.create(mTemporaryFolder.newFolder("cache"), "bench", LENGTH, "video/mp4");
+        byte[] block = new byte[SparseFileCache.DEFAULT_BLOCK_SIZE];
+        Random random = new Random(1);
+        for (int i = 0; i < mCache.blockCount(); i++) {
+            random.nextBytes(block);
+            mCache.write(ByteBuffer.wrap(block), mCache.blockStart(i));
+            mCache.markBlockCached(i);
+        }
+        mServerChannel = ServerSocketChannel.open();
+        mServerChannel.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        mExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+        mServerChannel.close();
+        mCache.close();
+    }
+
+    @Test
+    public void transferToVersusStreamCopy() throws Exception {
+        Result transfer = null;
+        Result stream = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            transfer = run(true);
+            stream = run(false);
+        }
+        System.out.println(String.format(Locale.US, "transferTo:  %s%nstream copy: %s", transfer, stream));
+    }
+
+    private Result run(boolean transferTo) throws Exception {
+        SocketChannel client = SocketChannel.open(mServerChannel.socket().getLocalSocketAddress());
+        SocketChannel server = mServerChannel.accept();
+        Future<Long> received = mExecutor.submit(new Drain(client));
+        long allocatedBefore = allocatedBytes();
+        long startTime = System.nanoTime();
+        try {
+            for (long offset = 0; offset < LENGTH; offset += RESPONSE_SIZE) {
+                if (transferTo) {
+                    sendWithTransferTo(server, offset, offset + RESPONSE_SIZE);
+                } else {
+                    sendWithStreamCopy(server, offset, offset + RESPONSE_SIZE);
+                }
+            }
+        } finally {
+            server.close();
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+        long allocated = allocatedBefore < 0 ? -1 : allocatedBytes() - allocatedBefore;
+        assertEquals(LENGTH, (long) received.get(60, TimeUnit.SECONDS));
+        client.close();
+        return new Result(elapsedNanos, allocated);
+    }
+
+    /**
+     * 现在的路径:数据从文件直接送到socket
+     */
+    private void sendWithTransferTo(SocketChannel channel, long offset, long end) throws ProxyCacheException {
+        while (offset < end) {
+            offset += mCache.transferTo(offset, end - offset, channel);
+        }
+    }
+
+    /**
+     * 原来的路径:每个响应一个8KB的堆缓冲区,读文件后经过BufferedOutputStream写socket
+     */
+    private void sendWithStreamCopy(SocketChannel channel, long offset, long end)
+            throws ProxyCacheException, IOException {
+        OutputStream out = new BufferedOutputStream(channel.socket().getOutputStream());
+        byte[] buffer = new byte[ProxyCacheUtils.DEFAULT_BUFFER_SIZE];
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        while (offset < end) {
+            byteBuffer.clear();
+            byteBuffer.limit((int) Math.min(buffer.length, end - offset));
+            mCache.read(byteBuffer, offset);
+            out.write(buffer, 0, byteBuffer.position());
+            offset += byteBuffer.position();
+        }
+        out.flush();
+    }
+
+    /**
+     * @return 当前线程累计分配的字节数,不是HotSpot时返回-1
+     */
+    private static long allocatedBytes() {
+        try {
+            Object threadMXBean = Class.forName("java.lang.management.ManagementFactory")
+                    .getMethod("getThreadMXBean").invoke(null);
+            Method method = Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getThreadAllocatedBytes", long.class);
+            return (Long) method.invoke(threadMXBean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static final class Drain implements Callable<Long> {
+
+        private final SocketChannel mChannel;
+
+        Drain(SocketChannel channel) {
+            mChannel = channel;
+        }
+
+        @Override
+        public Long call() throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+            long total = 0;
+            int readBytes;
+            while ((readBytes = mChannel.read(buffer)) != -1) {
+                total += readBytes;
+                buffer.clear();
+            }
+            return total;
+        }
+    }
+
+    private static final class Result {
+
+        final long mElapsedNanos;
+        final long mAllocatedBytes;
+
+        Result(long elapsedNanos, long allocatedBytes) {
+            mElapsedNanos = elapsedNanos;
+            mAllocatedBytes = allocatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = mElapsedNanos / 1e9;
+            return String.format(Locale.US, "%.0f MB/s, %d ms, allocated %d KB",
+                    LENGTH / 1024.0 / 1024.0 / seconds, mElapsedNanos / 1000000, mAllocatedBytes / 1024);
+        }
+    }
+}